@@ -0,0 +1,683 @@
+package Cafe3Test;
+
+import helpers.JsonLogger;
+import helpers.Menu;
+import helpers.AdmissionControl;
+import helpers.BrewClock;
+import helpers.BrewPolicy;
+import helpers.BrewingMachines;
+import helpers.CafeMetrics;
+import helpers.CafeRouter;
+import helpers.CafeSnapshot;
+import helpers.CafeSimulation;
+import helpers.ClientHandler;
+import helpers.CustomerOrder;
+import helpers.CustomerSessions;
+import helpers.CustomerTable;
+import helpers.MetricsServer;
+import helpers.NioServer;
+import helpers.OrderJournal;
+import helpers.OrderListener;
+import helpers.OrderParseException;
+import helpers.OrderParser;
+import helpers.OrderRejectedException;
+import helpers.SystemBrewClock;
+import helpers.WorkStealing;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class Barista {
+    //every customer has one CustomerOrder with a counter per drink for the waiting, brewing and tray areas
+    //there are no cafe-wide area locks any more - each customer's counters change atomically on their own, so customers never wait on each other
+    private final CustomerTable customers;
+    private static final int PORT = Integer.getInteger("cafe.port", 12345); //other ports for running several nodes on one machine
+
+    private final Menu menu;
+    private final OrderParser orderParser;
+
+    private final Set<String> clients = ConcurrentHashMap.newKeySet(); //set guarantees that each client is unique + fast, and handler threads can add at the same time
+
+    //fixed pools of machines per machine type on the menu, a cup waits in its machines queue until one is free (was hard-coded to 2 each)
+    private final Map<String, BrewingMachines> machines = new HashMap<>();
+
+    //the latest ready time projection from each machine type, a customer's estimate is the latest of their times across them
+    private final Map<String, Projection> projections = new HashMap<>();
+
+    //customers whose cups are due sooner under the DEADLINE policy, -Dcafe.expressCustomers=Bob,Ann or setExpress
+    private final Set<String> expressCustomers = ConcurrentHashMap.newKeySet();
+
+    private final ConcurrentHashMap<String, OrderListener> orderListeners = new ConcurrentHashMap<>(); //who to tell when a customers order is ready
+
+    //connected customers come and go through sessions, so a dropped connection can come back to its orders (see CustomerSessions)
+    private final CustomerSessions sessions;
+
+    private final AtomicInteger clientCount = new AtomicInteger(0); //thread safe counters without synchronisation
+
+    private final BrewClock clock;
+    private final CafeMetrics metrics;
+    private final AdmissionControl admission; //limits on connections, cups and waits, see -Dcafe.max*
+    private volatile OrderJournal journal; //null = orders only live in memory (benchmarks, tests)
+
+    //printing the whole cafe on every join/leave is slow with lots of customers, so it only happens with -Dcafe.logState=true
+    private static final boolean LOG_STATE = Boolean.getBoolean("cafe.logState");
+
+    //ready estimates are worked out on every batch start / finish unless -Dcafe.eta=false (read per barista, so a simulation can turn
+    //them off after the class is loaded), and a customer is only told again when theirs moves by -Dcafe.eta.changeMillis (5s) and a
+    //quarter of the wait they were last told
+    private static final long ETA_CHANGE_MILLIS = Long.getLong("cafe.eta.changeMillis", 5_000);
+    //past -Dcafe.eta.maxQueued waiting cups a new order keeps its rough estimate until the next batch starts, rather than every order
+    //projecting the whole queue again
+    private static final int ETA_MAX_QUEUED = Integer.getInteger("cafe.eta.maxQueued", 10_000);
+
+    public Barista() {
+        this(Menu.standard());
+    }
+
+    //machine counts can be changed with -Dcafe.<machine>Machines, e.g. -Dcafe.teaMachines=3 - 2 of each by default
+    public Barista(Menu menu) {
+        this(menu, machineCountsFromSystemProperties(menu));
+    }
+
+    public Barista(Menu menu, Map<String, Integer> machineCounts) {
+        this(menu, machineCounts, new SystemBrewClock());
+    }
+
+    //pass a VirtualBrewClock to run the cafe in virtual time - brews then only finish when the clock is advanced
+    //a machine brews up to -Dcafe.batchSize cups of one drink at once (4 by default), -Dcafe.batchWaitMillis lets a free machine wait that long for a fuller batch (0 by default)
+    //which waiting cups go first is -Dcafe.policy, see BrewPolicy
+    public Barista(Menu menu, Map<String, Integer> machineCounts, BrewClock clock) {
+        this(menu, machineCounts, clock, Integer.getInteger("cafe.batchSize", 4), Long.getLong("cafe.batchWaitMillis", 0));
+    }
+
+    public Barista(Menu menu, Map<String, Integer> machineCounts, BrewClock clock, int batchSize, long batchWaitMillis) {
+        this(menu, machineCounts, clock, batchSize, batchWaitMillis, BrewPolicy.fromSystemProperties());
+    }
+
+    public Barista(Menu menu, Map<String, Integer> machineCounts, BrewClock clock, int batchSize, long batchWaitMillis, BrewPolicy policy) {
+        this(menu, machineCounts, clock, batchSize, batchWaitMillis, policy, AdmissionControl.fromSystemProperties());
+    }
+
+    public Barista(Menu menu, Map<String, Integer> machineCounts, BrewClock clock, int batchSize, long batchWaitMillis, BrewPolicy policy,
+                   AdmissionControl admission) {
+        this.menu = menu;
+        this.admission = admission;
+        this.orderParser = new OrderParser(menu);
+        this.clock = clock;
+        this.metrics = new CafeMetrics(menu);
+        this.customers = new CustomerTable(menu, metrics.casRetries());
+        boolean eta = Boolean.parseBoolean(System.getProperty("cafe.eta", "true"));
+        for (String machineType : menu.machines()) {
+            BrewingMachines itemMachines = new BrewingMachines(machineType, machineCounts.getOrDefault(machineType, 2), batchSize, batchWaitMillis, policy, clock, metrics);
+            machines.put(machineType, itemMachines);
+            projections.put(machineType, new Projection());
+            if (eta) {
+                itemMachines.setReadyTimes(this::readyTimesChanged);
+            }
+        }
+        for (String customerName : System.getProperty("cafe.expressCustomers", "").split(",")) {
+            if (!customerName.isBlank()) {
+                expressCustomers.add(customerName.trim());
+            }
+        }
+        this.sessions = CustomerSessions.fromSystemProperties(clock, session -> addClient(session.getCustomerName(), session), this::removeClient);
+        metrics.addCollector(this::collectGauges);
+    }
+
+    //the gauges that are only worked out when someone reads the metrics - walking every customer here keeps it off the order path
+    private void collectGauges(Map<String, Number> values) {
+        values.put("connections.active", clientCount.get());
+        admission.collect(values);
+        sessions.collect(values);
+        long[] tray = new long[menu.size()];
+        for (CustomerOrder order : customers.all()) {
+            CustomerOrder.Snapshot snapshot = order.snapshot();
+            for (int item = 0; item < tray.length; item++) {
+                tray[item] += snapshot.tray(item);
+            }
+        }
+        for (int item = 0; item < tray.length; item++) {
+            values.put("cups.tray." + menu.get(item).getName().toLowerCase(), tray[item]);
+        }
+        long uptime = Math.max(1, metrics.uptimeMillis());
+        for (BrewingMachines machine : machines.values()) {
+            String prefix = "machines." + machine.getMachineType() + ".";
+            values.put(prefix + "capacity", machine.getCapacity());
+            values.put(prefix + "busy", machine.getBrewing());
+            values.put(prefix + "queued", machine.getQueued());
+            values.put(prefix + "oldestWaitMillis", machine.getOldestWaitMillis()); //keeps growing if the policy is starving someone
+            values.put(prefix + "utilisation", (double) machine.getBusyMillis() / (uptime * machine.getCapacity())); //0..1 since startup
+            values.put(prefix + "busyMillis", machine.getBusyMillis()); //on the brew clock, so a simulation can work out utilisation in its own time
+            values.put(prefix + "lockWaitMicros", machine.getLockWaitNanos() / 1000);
+            values.put(prefix + "batches", machine.getBatches());
+            values.put(prefix + "cupsPerBatch", machine.getBatches() == 0 ? 0.0 : (double) machine.getCupsBrewed() / machine.getBatches());
+        }
+        OrderJournal saved = journal;
+        if (saved != null) {
+            values.put("journal.records", saved.getRecords());
+            values.put("journal.batches", saved.getBatches()); //records / batches = how many share each group commit
+        }
+    }
+
+    //puts back every customer the journal knew about and journals everything from here on
+    //cups that were still waiting or brewing go back on the machines from the start - the journal doesnt know how far along they were
+    public void recover(OrderJournal journal) {
+        customers.reserveIds(journal.getNextCustomerId());
+        this.journal = journal;
+        int unfinishedOrders = 0;
+        for (OrderJournal.SavedCustomer saved : journal.recovered()) {
+            CustomerOrder order = customers.restore(saved.getId(), saved.getCustomerName(), saved.getCounts(), clock.now());
+            CustomerOrder.Snapshot snapshot = order.snapshot();
+            int[] waiting = new int[menu.size()];
+            int[] unfinished = new int[menu.size()];
+            int cups = 0;
+            for (int item = 0; item < menu.size(); item++) {
+                waiting[item] = snapshot.waiting(item);
+                unfinished[item] = snapshot.waiting(item) + snapshot.brewing(item);
+                cups += unfinished[item];
+            }
+            if (cups > 0) {
+                admission.forceReserveCups(cups);
+                order.startBrewing(waiting);
+                queueCups(order, unfinished);
+                unfinishedOrders++;
+            }
+        }
+        System.out.println("Recovered " + journal.recovered().size() + " customers (" + unfinishedOrders + " orders back on the machines) from "
+                + journal.getRecoveredRecords() + " journal records in " + journal.getRecoveryMillis() + "ms");
+        JsonLogger.log("INFO", "Recovered " + journal.recovered().size() + " customers from the order journal in " + journal.getRecoveryMillis() + "ms");
+    }
+
+    //express customers get the shorter sla under the DEADLINE policy, from their next order on
+    public void setExpress(String customerName, boolean express) {
+        if (express) {
+            expressCustomers.add(customerName);
+        } else {
+            expressCustomers.remove(customerName);
+        }
+    }
+
+    //a customer just connected - false if the cafe is full and they should be turned away before anything else happens
+    public boolean admitConnection() {
+        return admission.tryConnect();
+    }
+
+    //every admitted connection ends with this, however it ended
+    public void connectionFinished() {
+        admission.disconnected();
+    }
+
+    public CustomerSessions getSessions() {
+        return sessions;
+    }
+
+    public CafeMetrics getMetrics() {
+        return metrics;
+    }
+
+    //null when orders only live in memory. placeOrder and collectOrder only hand their record in, the connection holds the reply back
+    //until it is durable - a connection thread waits in awaitDurable, the nio selector cant so it parks the reply (see NioServer)
+    public OrderJournal getJournal() {
+        return journal;
+    }
+
+    private static Map<String, Integer> machineCountsFromSystemProperties(Menu menu) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String machineType : menu.machines()) {
+            counts.put(machineType, Integer.getInteger("cafe." + machineType + "Machines", 2));
+        }
+        return counts;
+    }
+
+    //server mode can be picked at startup: 'java Cafe3Test.Barista nio' (or -Dcafe.server=nio)
+    //blocking = one platform thread per customer (the original), nio = one selector thread for everyone, virtual = one virtual thread per customer (java 21+)
+    //'router' runs no cafe at all, just the front door that passes each customer to their node (see CafeRouter)
+    public static void main(String[] args) {
+        String mode = args.length > 0 ? args[0].toLowerCase() : System.getProperty("cafe.server", "blocking");
+        if (mode.equals("sim")) {
+            try {
+                CafeSimulation.main(Arrays.copyOfRange(args, 1, args.length));
+            } catch (Exception e) {
+                e.printStackTrace();
+                System.out.println("Error occurred while running the simulation.");
+            }
+            return;
+        }
+        if (mode.equals("router")) {
+            try {
+                System.out.println("Router listening on port " + PORT + " for nodes " + CafeRouter.nodesFromSystemProperties());
+                JsonLogger.log("INFO", "Router started on " + PORT);
+                new CafeRouter(PORT, CafeRouter.nodesFromSystemProperties()).serve();
+            } catch (Exception e) {
+                e.printStackTrace();
+                System.out.println("Error occurred while setting up the router.");
+                JsonLogger.log("ERROR", "Router error in setting up");
+            }
+            return;
+        }
+        //virtual mode without virtual threads would quietly be blocking mode - say so and stop before anything is started
+        ExecutorService virtualThreads = mode.equals("virtual") ? virtualThreadExecutor() : null;
+        if (mode.equals("virtual") && virtualThreads == null) {
+            System.out.println("Virtual mode needs java 21+, this is java " + Runtime.version().feature() + " - run on 21 or use blocking or nio mode.");
+            JsonLogger.log("ERROR", "Virtual threads not available on java " + Runtime.version().feature() + ", not starting");
+            JsonLogger.shutdown();
+            System.exit(1);
+        }
+        Barista barista = new Barista();
+
+        try {
+            //metrics are always on JMX, -Dcafe.metrics.port=9100 also serves them over http for scraping
+            barista.metrics.registerMBean();
+            int metricsPort = Integer.getInteger("cafe.metrics.port", 0);
+            if (metricsPort > 0) {
+                new MetricsServer(barista.metrics, metricsPort, barista::snapshot).start();
+            }
+
+            //orders survive a restart unless -Dcafe.journal=false
+            if (Boolean.parseBoolean(System.getProperty("cafe.journal", "true"))) {
+                OrderJournal journal = OrderJournal.fromSystemProperties(barista.menu.size());
+                Runtime.getRuntime().addShutdownHook(new Thread(journal::close, "order-journal-shutdown"));
+                barista.recover(journal);
+            }
+
+            //one node of several - idle machines here brew cups queued on the other nodes, -Dcafe.peerPort is where they ask us
+            List<String> peers = WorkStealing.peersFromSystemProperties();
+            if (!peers.isEmpty()) {
+                new WorkStealing(barista.menu, barista.machines.values(), barista.clock, barista.metrics,
+                        Integer.getInteger("cafe.peerPort", PORT + 1000), peers, Long.getLong("cafe.stealMillis", 200)).start();
+            }
+
+            System.out.println("Barista is running and listening on port " + PORT + " (" + mode + " mode)");
+            JsonLogger.log("INFO", "Barista has started listening on: " + PORT + " in " + mode + " mode");
+
+            switch (mode) {
+                case "nio":
+                    new NioServer(barista, PORT).serve();
+                    break;
+                case "virtual":
+                    serveWithThreads(barista, virtualThreads);
+                    break;
+                case "blocking":
+                    serveWithThreads(barista, null);
+                    break;
+                default:
+                    System.out.println("Unknown server mode: " + mode + " - use blocking, nio or virtual");
+                    JsonLogger.log("ERROR", "Unknown server mode " + mode);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("Error occurred while setting up the server.");
+            JsonLogger.log("ERROR", "Server error in setting up");
+        }
+    }
+
+    //each customer gets their own thread to handle orders - a platform thread if executor is null, otherwise whatever the executor hands out
+    //pushes (order ready, new estimates) are written by the same executor, or a pool of daemon threads that only run while there is something to send
+    private static void serveWithThreads(Barista barista, ExecutorService executor) throws IOException {
+        Executor pushSender = executor != null ? executor : Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "push-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (ServerSocket serverSocket = new ServerSocket(PORT, 1024)) {
+            while (true) {
+                Socket clientSocket = serverSocket.accept();
+                if (!barista.admitConnection()) {
+                    turnAway(clientSocket);
+                    continue;
+                }
+                System.out.println("New customer connected: " + clientSocket.getInetAddress());
+                ClientHandler clientHandler = new ClientHandler(clientSocket, barista, pushSender);
+                if (executor != null) {
+                    executor.execute(clientHandler);
+                } else {
+                    new Thread(clientHandler).start();
+                }
+            }
+        }
+    }
+
+    //the cafe is full - one line saying so and the connection closes, no thread is started for it
+    private static void turnAway(Socket clientSocket) {
+        try (clientSocket) {
+            clientSocket.getOutputStream().write(ClientHandler.CAFE_FULL);
+        } catch (IOException e) {
+            //they went first
+        }
+        JsonLogger.log("ERROR", "Turned away a connection, the cafe is full");
+    }
+
+    //looked up reflectively so the cafe still compiles and runs on java 17 (see the jdk21 profile in the pom) - null there
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    //addClient once per client thus then synchronisation is not needed - when they join only first time
+    public void addClient(String customerName, OrderListener listener) {
+        //add the client to the set
+        clients.add(customerName);
+        orderListeners.put(customerName, listener);
+
+        //increment client count - atomic
+        clientCount.incrementAndGet();
+        metrics.connectionOpened();
+
+        System.out.println("Added client: " + customerName);
+        if (LOG_STATE) {
+            logState();
+        }
+    }
+
+    public void removeClient(String customerName) {
+        clients.remove(customerName);
+        orderListeners.remove(customerName);
+        //their cups come off the machines first, while the name still belongs to them - a free machine goes straight to the next customer
+        //most customers leave with nothing on the go, they dont need every machine queue searched for them
+        int cancelled = 0;
+        CustomerOrder order = customers.get(customerName);
+        CustomerOrder.Snapshot outstanding = order == null ? null : order.snapshot();
+        if (outstanding != null && !(outstanding.isWaitingEmpty() && outstanding.isBrewingEmpty())) {
+            for (BrewingMachines itemMachines : machines.values()) {
+                cancelled += itemMachines.cancel(customerName);
+            }
+        }
+        if (cancelled > 0) {
+            admission.releaseCups(cancelled);
+            System.out.println("Cancelled " + cancelled + " cups for " + customerName);
+            JsonLogger.log("INFO", "Cancelled " + cancelled + " unbrewed cups for " + customerName);
+        }
+        //a cup already finishing holds on to the old CustomerOrder, so it cant end up on the tray of someone new with the same name
+        CustomerOrder removed = customers.remove(customerName);
+        OrderJournal saved = journal;
+        if (removed != null && saved != null) {
+            saved.removed(removed.getId());
+        }
+        clientCount.decrementAndGet();
+        metrics.connectionClosed();
+        if (LOG_STATE) {
+            logState();
+        }
+    }
+
+    //every customer as they were at one moment - totals, the oldest waiting order, the busiest customers and a json export all run
+    //over it afterwards (see CafeSnapshot). orders, brewing and collecting carry on while it is taken
+    public CafeSnapshot snapshot() {
+        return customers.snapshot(clock.now());
+    }
+
+    public void logState() {
+        StringBuilder waiting = new StringBuilder();
+        StringBuilder brewing = new StringBuilder();
+        StringBuilder tray = new StringBuilder();
+        int waitingCustomers = 0;
+        //all from one CafeSnapshot, so the areas add up across customers as well as for each one - and brewing carries on while we read
+        for (CafeSnapshot.Entry entry : snapshot().entries()) {
+            CustomerOrder.Snapshot snapshot = entry.getCounts();
+            CustomerOrder order = entry.getOrder();
+            if (!snapshot.isWaitingEmpty()) {
+                waitingCustomers++;
+                order.appendWaiting(startEntry(waiting, order), snapshot);
+            }
+            if (!snapshot.isBrewingEmpty()) {
+                order.appendBrewing(startEntry(brewing, order), snapshot);
+            }
+            if (!snapshot.isTrayEmpty()) {
+                order.appendTray(startEntry(tray, order), snapshot);
+            }
+        }
+        System.out.println("::: Barista log :::");
+        System.out.println("Number of clients idle in the cafe: " + clientCount.get());
+        System.out.println("Number of clients waiting for orders: " + waitingCustomers);
+        System.out.println("Waiting Area: {" + waiting + "}");
+        System.out.println("Brewing Area: {" + brewing + "}");
+        System.out.println("Tray Area: {" + tray + "}");
+    }
+
+    private static StringBuilder startEntry(StringBuilder out, CustomerOrder order) {
+        if (out.length() > 0) {
+            out.append(", ");
+        }
+        return out.append(order.getCustomerName()).append('=');
+    }
+
+    //this is to place the order, handling the order details to identify the quantities of each drink - add it to the waiting area and hand the cups to the machines - the machines brew them on their own threads so this doesnt block
+    //throws if the order mentions something that isnt on the menu or cant be read, or if the cafe wont take it on (AdmissionControl) - nothing is added in either case
+    //returns roughly how long until the whole order, and anything else the customer still has on the go, is brewed
+    public long placeOrder(String customerName, String orderDetails) throws OrderParseException, OrderRejectedException {
+        int[] counts = new int[menu.size()];
+        orderParser.parse(orderDetails, counts);
+
+        CustomerOrder order = customers.intern(customerName);
+        //a long, since a few items near Integer.MAX_VALUE would wrap an int round to a small (or negative) total that passes the limits
+        long total = 0;
+        int outstanding = 0;
+        CustomerOrder.Snapshot before = order.snapshot();
+        for (int item = 0; item < counts.length; item++) {
+            total += counts[item];
+            outstanding += before.waiting(item) + before.brewing(item);
+        }
+        admission.reserveCups(outstanding, total);
+        int ordered = (int) total; //reserved, so it is under maxCustomerCups
+        long estimate = estimateMillis(counts);
+        try {
+            admission.checkWait(estimate);
+        } catch (OrderRejectedException e) {
+            admission.releaseCups(ordered);
+            JsonLogger.log("ERROR", " Turned down an order from " + customerName + ": " + e.getMessage());
+            throw e;
+        }
+
+        //written ahead - the reply that tells the customer it was placed waits for this record (see getJournal), so once they hear it
+        //the order survives a restart (with -Dcafe.journal.sync, the default)
+        OrderJournal saved = journal;
+        if (saved != null) {
+            saved.placed(order.getId(), customerName, counts);
+        }
+
+        //adding on top means a second order doesnt wipe out the first
+        order.addWaiting(counts, clock.now());
+        metrics.orderPlaced();
+        System.out.println("Order added to waiting area: " + customerName);
+        JsonLogger.log("INFO", " Order is added to waiting area for: " +customerName);
+
+        //the rough estimate stands until the machines project the real one - no pushes while the cups go in, the reply has the estimate
+        long readyAt = Math.max(order.getReadyAt(), clock.now() + estimate);
+        order.setReadyAt(readyAt);
+        order.placing();
+
+        System.out.println("Sending order to the machines for customer: " + customerName);
+        JsonLogger.log("INFO", " Sent order to the machines for " + customerName);
+        brewOrder(order, counts);
+
+        //now every cup is queued the machines can say where this order really is in the line
+        for (int item = 0; item < counts.length; item++) {
+            BrewingMachines itemMachines = machines.get(menu.get(item).getMachine());
+            if (counts[item] > 0 && itemMachines.getQueued() <= ETA_MAX_QUEUED) {
+                itemMachines.publishReadyTimes();
+            }
+        }
+        readyAt = order.getReadyAt();
+        order.told(readyAt);
+        return Math.max(0, readyAt - clock.now());
+    }
+
+    //the slowest machine type in the order decides when it is ready
+    private long estimateMillis(int[] counts) {
+        Map<String, Integer> cupsPerMachine = new HashMap<>();
+        for (int item = 0; item < counts.length; item++) {
+            if (counts[item] > 0) {
+                cupsPerMachine.merge(menu.get(item).getMachine(), counts[item], Integer::sum);
+            }
+        }
+        long estimate = 0;
+        for (int item = 0; item < counts.length; item++) {
+            if (counts[item] > 0) {
+                Menu.Item drink = menu.get(item);
+                estimate = Math.max(estimate, machines.get(drink.getMachine()).estimateMillis(drink, cupsPerMachine.get(drink.getMachine())));
+            }
+        }
+        return estimate;
+    }
+
+    //a machine type has a new projection - customers whose time on it moved get their estimate worked out again, and a push if it moved enough
+    private void readyTimesChanged(BrewingMachines itemMachines, long version, Map<String, Long> readyAt) {
+        Projection projection = projections.get(itemMachines.getMachineType());
+        List<String> moved = new ArrayList<>();
+        synchronized (projection) {
+            if (version <= projection.version) {
+                return; //a newer one got here first
+            }
+            Map<String, Long> before = projection.readyAt;
+            projection.version = version;
+            projection.readyAt = readyAt;
+            for (Map.Entry<String, Long> customer : readyAt.entrySet()) {
+                if (!customer.getValue().equals(before.get(customer.getKey()))) {
+                    moved.add(customer.getKey());
+                }
+            }
+            for (String customerName : before.keySet()) {
+                if (!readyAt.containsKey(customerName)) {
+                    moved.add(customerName); //nothing of this type left for them
+                }
+            }
+        }
+        long now = clock.now();
+        for (String customerName : moved) {
+            updateReadyAt(customerName, now);
+        }
+    }
+
+    private void updateReadyAt(String customerName, long now) {
+        CustomerOrder order = customers.get(customerName);
+        if (order == null) {
+            return;
+        }
+        long readyAt = -1;
+        for (Projection projection : projections.values()) {
+            readyAt = Math.max(readyAt, projection.readyAt.getOrDefault(customerName, -1L));
+        }
+        order.setReadyAt(readyAt);
+        if (order.retell(readyAt, now, ETA_CHANGE_MILLIS)) {
+            OrderListener listener = orderListeners.get(customerName);
+            if (listener != null) {
+                listener.readyEstimateChanged(customerName, readyAt - now);
+            }
+        }
+    }
+
+    private void brewOrder(CustomerOrder order, int[] counts) {
+        String customerName = order.getCustomerName();
+        //only this orders cups move, anything else the customer still has waiting stays where it is
+        order.startBrewing(counts);
+        System.out.println("Order moved to brewing area: " + customerName);
+        JsonLogger.log("INFO", " Order moved from waiting area to brewing area for: " + customerName);
+        queueCups(order, counts);
+    }
+
+    private void queueCups(CustomerOrder order, int[] counts) {
+        String customerName = order.getCustomerName();
+        int cups = 0;
+        for (int count : counts) {
+            cups += count;
+        }
+
+        //every cup goes into its machines queue - different machine types brew at the same time, and the order is ready when the last cup is done
+        AtomicInteger remaining = new AtomicInteger(cups);
+        boolean express = expressCustomers.contains(customerName);
+        for (int index = 0; index < counts.length; index++) {
+            Menu.Item item = menu.get(index);
+            BrewingMachines itemMachines = machines.get(item.getMachine());
+            for (int i = 0; i < counts[index]; i++) {
+                int cup = i + 1;
+                itemMachines.brew(customerName, item, cup, cups, express, () -> cupBrewed(order, item, cup, remaining));
+            }
+        }
+    }
+
+    //once a cup is brewed it moves from brewing to the tray straight away - just two counters, no re-reading the tray
+    //journaled first, a collect can only take the cup off the tray once it is on it, so its record always comes after this one
+    private void cupBrewed(CustomerOrder order, Menu.Item item, int cup, AtomicInteger remaining) {
+        admission.releaseCups(1);
+        OrderJournal saved = journal;
+        if (saved != null) {
+            saved.brewed(order.getId(), item.getIndex());
+        }
+        order.cupBrewed(item.getIndex());
+        System.out.println(item.getName() + " " + cup + " added to tray area for " + order.getCustomerName());
+        if (remaining.decrementAndGet() == 0) {
+            finishOrder(order);
+        }
+    }
+
+    private void finishOrder(CustomerOrder order) {
+        String customerName = order.getCustomerName();
+        System.out.println("Order moved to tray area for " + customerName);
+        JsonLogger.log("INFO", " Order moved from brewing to tray area for: " +customerName);
+        order.markReady(clock.now());
+        metrics.orderReady();
+
+        //finishOrder runs once per order, so the customer hears about it exactly once - and only this customer
+        OrderListener listener = orderListeners.get(customerName);
+        if (listener != null) {
+            listener.orderReady(customerName);
+        }
+    }
+
+    // collect order for the customer method - emptying the tray is one atomic step, so two collects cant both get the same cups
+    public String collectOrder(String customerName) {
+        CustomerOrder order = customers.get(customerName);
+        CustomerOrder.Snapshot collected = order == null ? null : order.collectTray();
+        if (collected != null) {
+            OrderJournal saved = journal;
+            if (saved != null) {
+                int[] tray = new int[menu.size()];
+                for (int item = 0; item < tray.length; item++) {
+                    tray[item] = collected.tray(item);
+                }
+                saved.collected(order.getId(), tray);
+            }
+            long readySince = order.takeReadySince();
+            metrics.orderCollected(readySince < 0 ? -1 : clock.now() - readySince);
+            JsonLogger.log("INFO", " Order collected for: " +customerName);
+
+            System.out.println("Order collected for customer: " + customerName);
+            return "You collected your order.";
+        }
+        return "No order ready for collection.";
+    }
+
+    //shows all the areas, if they dont have anything in them, default to showing 0. and roughly when the order will be ready - the text
+    //is cached per change to the order or to the shown estimate, so repeated status checks hand back the same String without locking or allocating
+    public String getOrderStatus(String customerName) {
+        CustomerOrder order = customers.get(customerName);
+        return order == null ? CustomerOrder.emptyStatus(customerName) : order.status(clock.now());
+    }
+
+    //getOrderStatus as UTF-8 bytes for the connection to write as they are, null if the customer has no order
+    public byte[] getOrderStatusBytes(String customerName) {
+        CustomerOrder order = customers.get(customerName);
+        return order == null ? null : order.statusBytes(clock.now());
+    }
+
+    //one machine type's projection, swapped whole so readers never see it half done
+    private static final class Projection {
+        private long version; //guarded by the Projection
+        private volatile Map<String, Long> readyAt = Map.of();
+    }
+}
@@ -0,0 +1,114 @@
+package bench;
+
+import Cafe3Test.Barista;
+import helpers.JsonLogger;
+import helpers.Menu;
+import helpers.OrderParseException;
+import helpers.OrderParser;
+import helpers.OrderRejectedException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//each step of an order going through the barista. brew time is zero so the machines finish instantly and only the barista's own work is measured
+//run it over a few thread counts so lock contention on the areas shows up as falling ops/sec - every jmh thread is its own customer
+//run: mvn test-compile exec:exec -Djmh.args="BaristaBench -t 4"   (or "BaristaBench.status -t 16" for just one)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BaristaBench {
+    private static final int IDLE_CUSTOMERS = 64; //sitting in the cafe with something on their tray, so logState has something to print
+
+    @State(Scope.Benchmark)
+    public static class Cafe {
+        Barista barista;
+        OrderParser parser;
+        final AtomicInteger customers = new AtomicInteger();
+
+        @Setup
+        public void setUp() throws Exception {
+            Bench.cafeProperties();
+            Bench.muteStdout();
+            barista = new Barista(Menu.standard(0));
+            parser = new OrderParser(Menu.standard());
+            for (int c = 0; c < IDLE_CUSTOMERS; c++) {
+                String name = "Idle" + c;
+                Semaphore done = new Semaphore(0);
+                barista.addClient(name, customerName -> done.release());
+                barista.placeOrder(name, "1 tea and 1 coffee");
+                done.acquire();
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            JsonLogger.shutdown();
+        }
+    }
+
+    //one customer per benchmark thread, with the semaphore their READY notifications release
+    @State(Scope.Thread)
+    public static class Customer {
+        String name;
+        final Semaphore ready = new Semaphore(0);
+        final int[] counts = new int[2];
+
+        @Setup
+        public void setUp(Cafe cafe) {
+            name = "Customer" + cafe.customers.getAndIncrement();
+            cafe.barista.addClient(name, customerName -> ready.release());
+        }
+    }
+
+    @Benchmark
+    public int[] parse(Cafe cafe, Customer customer) throws OrderParseException {
+        customer.counts[0] = 0;
+        customer.counts[1] = 0;
+        cafe.parser.parse("2 tea and 1 coffee", customer.counts);
+        return customer.counts;
+    }
+
+    //waiting -> brewing -> tray -> collected, one whole order per op
+    @Benchmark
+    public String lifecycle(Cafe cafe, Customer customer) throws OrderParseException, OrderRejectedException, InterruptedException {
+        cafe.barista.placeOrder(customer.name, "1 tea and 1 coffee");
+        customer.ready.acquire();
+        return cafe.barista.collectOrder(customer.name);
+    }
+
+    @Benchmark
+    public String status(Cafe cafe, Customer customer) {
+        return cafe.barista.getOrderStatus(customer.name);
+    }
+
+    //the common case - customers asking before anything is ready
+    @Benchmark
+    public String collect(Cafe cafe, Customer customer) {
+        return cafe.barista.collectOrder(customer.name);
+    }
+
+    @Benchmark
+    public void logState(Cafe cafe) {
+        cafe.barista.logState();
+    }
+
+    //takes the cafe so its setup has pointed the logger at a temp file first
+    @Benchmark
+    public void jsonLog(Cafe cafe) {
+        JsonLogger.log("INFO", " Received Command order status");
+    }
+}
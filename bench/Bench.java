@@ -0,0 +1,39 @@
+package bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+
+//what the jmh benchmarks (and SchedulingSim) share: 'key=value' arguments for the sims, muting the barista's event printing,
+//and the cafe settings every benchmark wants so it measures the cafe and not the log file or the admission limits
+public final class Bench {
+    private static final PrintStream NO_OUT = new PrintStream(OutputStream.nullOutputStream());
+
+    private Bench() {
+    }
+
+    //parses 'key=value' arguments, e.g. orders=20000 load=0.85
+    public static String arg(String[] args, String key, String defaultValue) {
+        for (String arg : args) {
+            if (arg.startsWith(key + "=")) {
+                return arg.substring(key.length() + 1);
+            }
+        }
+        return defaultValue;
+    }
+
+    //the barista prints every event - call this before setting one up, keep System.out from before it for results
+    public static void muteStdout() {
+        System.setOut(NO_OUT);
+    }
+
+    //call from a @Setup before the first Barista - keeps the benchmark's log lines out of the real server_logs.json
+    //and lets every customer order as much as it likes
+    public static void cafeProperties() throws IOException {
+        System.setProperty("cafe.log.file", Files.createTempFile("bench_logs", ".json").toString());
+        System.setProperty("cafe.log.overflow", "DROP");
+        System.setProperty("cafe.maxCustomerCups", String.valueOf(Integer.MAX_VALUE));
+        System.setProperty("cafe.maxCups", String.valueOf(Integer.MAX_VALUE));
+    }
+}
@@ -0,0 +1,98 @@
+package bench;
+
+import Cafe3Test.Barista;
+import helpers.JsonLogger;
+import helpers.Menu;
+import helpers.OrderParseException;
+import helpers.OrderRejectedException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//lots of customers hammering the barista at once with a realistic mix (mostly status checks, some orders and collects)
+//ownCustomer gives every thread its own customer, sharedCustomer points every thread at the same one - if customers dont
+//contend with each other the first should scale with threads while the second shows what contention on a single customer costs
+//run: mvn test-compile exec:exec -Djmh.args="ContentionBench -t 64 -p customers=64"
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class ContentionBench {
+
+    @State(Scope.Benchmark)
+    public static class Cafe {
+        @Param("64")
+        int customers;
+
+        Barista barista;
+        final AtomicInteger threads = new AtomicInteger();
+
+        @Setup
+        public void setUp() throws Exception {
+            Bench.cafeProperties();
+            Bench.muteStdout();
+            barista = new Barista(Menu.standard(0));
+            for (int c = 0; c < customers; c++) {
+                barista.addClient(customer(c), name -> { });
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            JsonLogger.shutdown();
+        }
+    }
+
+    //which customer this thread is, and where it is in the mix
+    @State(Scope.Thread)
+    public static class Worker {
+        String own;
+        int step;
+
+        @Setup
+        public void setUp(Cafe cafe) {
+            own = customer(cafe.threads.getAndIncrement() % cafe.customers);
+        }
+    }
+
+    @Benchmark
+    public String ownCustomer(Cafe cafe, Worker worker) throws OrderParseException, OrderRejectedException {
+        return mixedOp(cafe.barista, worker.own, worker);
+    }
+
+    @Benchmark
+    public String sharedCustomer(Cafe cafe, Worker worker) throws OrderParseException, OrderRejectedException {
+        return mixedOp(cafe.barista, customer(0), worker);
+    }
+
+    //8 status checks, then an order, then a collect
+    private static String mixedOp(Barista barista, String customerName, Worker worker) throws OrderParseException, OrderRejectedException {
+        int step = worker.step++ % 10;
+        if (step == 8) {
+            barista.placeOrder(customerName, "1 tea and 1 coffee");
+            return customerName;
+        } else if (step == 9) {
+            return barista.collectOrder(customerName);
+        }
+        return barista.getOrderStatus(customerName);
+    }
+
+    private static String customer(int index) {
+        return "Customer" + index;
+    }
+}
@@ -0,0 +1,106 @@
+package bench;
+
+import helpers.OrderJournal;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+//how long OrderJournal takes to bring the cafe back, against how much was journaled before the restart
+//each size is written twice: once never snapshotting (replay grows with the journal) and once snapshotting every 100000 records (replay stays flat)
+//every measured open is a restart from its own fresh copy of the files, timed once (a cold single shot, like a real restart)
+//run: mvn test-compile exec:exec -Djmh.args="JournalRecoveryBench -p records=10000,100000,1000000"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JournalRecoveryBench {
+    private static final int ITEMS = 2; //tea and coffee
+
+    @Param({"10000", "100000", "1000000"})
+    int records;
+
+    @Param({"0", "100000"}) //0 - never snapshot
+    int snapshotEvery;
+
+    @Param("1000")
+    int customers;
+
+    private Path dir;
+    private Path copy;
+    private OrderJournal reopened;
+
+    @Setup(Level.Trial)
+    public void write() throws IOException {
+        dir = Files.createTempDirectory("cafe-journal-bench");
+        //sync off - this is about replay, and writing a million fsyncs would take the whole run
+        OrderJournal journal = OrderJournal.open(dir, ITEMS, false, snapshots());
+        int[] order = {1, 1};
+        for (int written = 0, customer = 0; written < records; written += 4, customer = (customer + 1) % customers) {
+            journal.placed(customer, "Customer " + customer, order);
+            journal.brewed(customer, 0);
+            journal.brewed(customer, 1);
+            journal.collected(customer, order);
+        }
+        journal.close();
+    }
+
+    //opening rotates the journal, so every restart starts from its own copy of what was written
+    @Setup(Level.Invocation)
+    public void copy() throws IOException {
+        copy = Files.createTempDirectory("cafe-journal-copy");
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.copy(file, copy.resolve(file.getFileName()));
+            }
+        }
+    }
+
+    //what a restart does - the records it replayed come back so the jit cant skip the replay
+    @Benchmark
+    public long recover() throws IOException {
+        reopened = OrderJournal.open(copy, ITEMS, false, snapshots());
+        return reopened.getRecoveredRecords();
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeCopy() throws IOException {
+        reopened.close();
+        delete(copy);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteJournal() throws IOException {
+        delete(dir);
+    }
+
+    private int snapshots() {
+        return snapshotEvery == 0 ? Integer.MAX_VALUE : snapshotEvery;
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
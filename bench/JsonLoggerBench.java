@@ -0,0 +1,106 @@
+package bench;
+
+import com.google.gson.Gson;
+import helpers.AsyncLogAppender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+//events/sec for the old open-write-close-per-message logger against AsyncLogAppender in each durability mode
+//the appender blocks when its ring is full, so once the ring has filled up the ops/sec is what actually reaches the file, not just what got queued
+//run: mvn test-compile exec:exec -Djmh.args="JsonLoggerBench -t 4 -p durability=BUFFERED,FSYNC"
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class JsonLoggerBench {
+    private static final Gson gson = new Gson();
+
+    @State(Scope.Benchmark)
+    public static class LegacyFile {
+        Path file;
+
+        @Setup
+        public void setUp() throws IOException {
+            file = Files.createTempFile("legacy_logs", ".json");
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            Files.delete(file);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Appender {
+        @Param({"BUFFERED", "FLUSH", "FSYNC"})
+        AsyncLogAppender.Durability durability;
+
+        Path file;
+        AsyncLogAppender appender;
+
+        @Setup
+        public void setUp() throws IOException {
+            file = Files.createTempFile("async_logs", ".json");
+            appender = new AsyncLogAppender(file, 8192, 200, durability, AsyncLogAppender.Overflow.BLOCK);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            appender.close();
+            Files.delete(file);
+        }
+    }
+
+    //file writer per event (before)
+    @Benchmark
+    public void legacy(LegacyFile legacy) {
+        legacyLog(legacy.file, "INFO", " Received Command order 1 tea");
+    }
+
+    @Benchmark
+    public boolean asyncAppender(Appender appender) {
+        return appender.appender.append(new Entry("INFO", " Received Command order 1 tea"));
+    }
+
+    //what JsonLogger.log used to do for every message
+    private static void legacyLog(Path file, String level, String message) {
+        try (FileWriter writer = new FileWriter(file.toFile(), true)) {
+            gson.toJson(new Entry(level, message), writer);
+            writer.write("\n");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static class Entry {
+        private final String timestamp;
+        private final String level;
+        private final String message;
+
+        Entry(String level, String message) {
+            this.timestamp = LocalDateTime.now().toString();
+            this.level = level;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package bench;
+
+import helpers.Menu;
+import helpers.OrderParseException;
+import helpers.OrderParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+//orders parsed per second - the old split("and") + Pattern.compile per item against OrderParser, on realistic multi item orders
+//every parsed count goes into the Blackhole so the jit cant throw the parsing away
+//run: mvn test-compile exec:exec -Djmh.args="OrderParserBench -prof gc"
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderParserBench {
+    private static final String[] ORDERS = {
+            "1 tea",
+            "2 tea and 1 coffee",
+            "3 coffee and 2 tea",
+            "1 Tea and 1 Coffee and 2 tea",
+            "10 coffees, 4 teas",
+            "2 tea and 2 coffee and 1 tea and 1 coffee",
+    };
+
+    private OrderParser parser;
+    private int[] counts;
+
+    @Setup
+    public void setUp() {
+        parser = new OrderParser(Menu.standard());
+        counts = new int[2];
+    }
+
+    //split + Pattern.compile (before). both count one op per order in ORDERS
+    @Benchmark
+    @OperationsPerInvocation(6)
+    public void legacy(Blackhole blackhole) {
+        for (String order : ORDERS) {
+            int[] parsed = legacyParse(order);
+            blackhole.consume(parsed[0]);
+            blackhole.consume(parsed[1]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(6)
+    public void orderParser(Blackhole blackhole) throws OrderParseException {
+        for (String order : ORDERS) {
+            counts[0] = 0;
+            counts[1] = 0;
+            parser.parse(order, counts);
+            blackhole.consume(counts[0]);
+            blackhole.consume(counts[1]);
+        }
+    }
+
+    //what Barista.placeOrder used to do with the order details
+    private static int[] legacyParse(String orderDetails) {
+        String[] items = orderDetails.split("and");
+        int teaCount = 0;
+        int coffeeCount = 0;
+        for (String item : items) {
+            item = item.trim();
+            if (item.contains("tea")) {
+                teaCount += legacyQuantity(item, "tea");
+            } else if (item.contains("coffee")) {
+                coffeeCount += legacyQuantity(item, "coffee");
+            }
+        }
+        return new int[]{teaCount, coffeeCount};
+    }
+
+    private static int legacyQuantity(String item, String itemType) {
+        Pattern pattern = Pattern.compile("(\\d+)\\s*" + itemType);
+        Matcher matcher = pattern.matcher(item.toLowerCase());
+        if (matcher.find()) {
+            return Integer.parseInt(matcher.group(1));
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,151 @@
+package bench;
+
+import Cafe3Test.Barista;
+import helpers.CafeClient;
+import helpers.JsonLogger;
+import helpers.LatencyHistogram;
+import helpers.Menu;
+import helpers.NioServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//a network blip: every customer has an order brewing, all their connections drop at once, then they all come back together with
+//their session tokens. times the storm of resumes (one cold single shot, the setup has to wait for brews to finish) and checks it leaves
+//the cafe as it was - same customers, same cups on the machines, nothing queued twice, every READY that fired while they were away delivered
+//runs its own nio server in process: mvn test-compile exec:exec -Djmh.args="ReconnectStormBench -p customers=2000 -p threads=64"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(1)
+public class ReconnectStormBench {
+    private static final PrintStream OUT = System.out; //the barista prints every event, the before/after check still goes here
+
+    @Param("2000")
+    int customers;
+
+    @Param("64")
+    int threads;
+
+    @Param("12399")
+    int port;
+
+    private Barista barista;
+    private final AtomicInteger readyPushes = new AtomicInteger();
+    private final List<CafeClient> clients = new ArrayList<>();
+    private final LatencyHistogram resumes = new LatencyHistogram();
+    private Map<String, Number> before;
+
+    @Setup
+    public void dropEveryone() throws Exception {
+        Bench.cafeProperties();
+        Bench.muteStdout();
+
+        //5s brews so a couple of rounds of batches finish while everyone is away, the rest are still queued when they come back
+        barista = new Barista(Menu.standard(5_000));
+        Thread server = new Thread(() -> {
+            try {
+                new NioServer(barista, port).serve();
+            } catch (Exception e) {
+                OUT.println("Server stopped: " + e.getMessage());
+            }
+        }, "bench-nio-server");
+        server.setDaemon(true);
+        server.start();
+        Thread.sleep(500);
+
+        for (int i = 0; i < customers; i++) {
+            CafeClient client = CafeClient.connect("localhost", port, nameFor(i), push -> readyPushes.incrementAndGet());
+            client.send("order 1 tea").get(10, TimeUnit.SECONDS);
+            clients.add(client);
+        }
+        before = barista.getMetrics().snapshot();
+
+        //the blip - sockets just close, nobody says exit
+        for (CafeClient client : clients) {
+            client.close();
+        }
+        waitFor(barista, "sessions.detached", customers);
+        Thread.sleep(11_000); //brews finish while nobody is connected
+    }
+
+    //everyone resumes at once over 'threads' threads, returns how many made it back
+    @Benchmark
+    public int storm() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<CafeClient>> back = new ArrayList<>(customers);
+        for (int i = 0; i < customers; i++) {
+            CafeClient old = clients.get(i);
+            String customerName = nameFor(i);
+            back.add(pool.submit(() -> {
+                long asked = System.nanoTime();
+                CafeClient client = CafeClient.resume("localhost", port, customerName, old.getSessionToken(), push -> readyPushes.incrementAndGet());
+                long took = (System.nanoTime() - asked) / 1000;
+                synchronized (resumes) {
+                    resumes.record(took);
+                }
+                return client;
+            }));
+        }
+        int resumed = 0;
+        for (Future<CafeClient> client : back) {
+            client.get().close(); //'exit' would cancel their cups, just drop again - the sessions are still counted below
+            resumed++;
+        }
+        pool.shutdown();
+        return resumed;
+    }
+
+    @TearDown
+    public void check() {
+        Map<String, Number> after = barista.getMetrics().snapshot();
+        OUT.printf("resume latency us: mean %.0f, p50 %d, p99 %d, max %d%n", resumes.getMean(), resumes.valueAt(50), resumes.valueAt(99), resumes.getMax());
+        for (String key : new String[]{"connections.active", "sessions.open", "admission.cupsOutstanding", "machines.tea.queued", "cups.cancelled", "sessions.resumed", "sessions.resumeFailed"}) {
+            OUT.printf("%-28s before %,10d   after %,10d%n", key, value(before, key), value(after, key));
+        }
+        OUT.printf("%-28s %,d (pushed while away and replayed on resume)%n", "READY pushes received", readyPushes.get());
+        JsonLogger.shutdown();
+    }
+
+    private static void waitFor(Barista barista, String key, long expected) throws InterruptedException {
+        for (int i = 0; i < 200 && value(barista.getMetrics().snapshot(), key) < expected; i++) {
+            Thread.sleep(50);
+        }
+    }
+
+    private static long value(Map<String, Number> values, String key) {
+        Number value = values.get(key);
+        return value == null ? 0 : value.longValue();
+    }
+
+    //customer names can only have letters: 0 -> Stoa, 27 -> Stobb
+    private static String nameFor(int index) {
+        StringBuilder name = new StringBuilder("Sto");
+        do {
+            name.append((char) ('a' + index % 26));
+            index /= 26;
+        } while (index > 0);
+        return name.toString();
+    }
+}
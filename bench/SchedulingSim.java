@@ -0,0 +1,134 @@
+package bench;
+
+import Cafe3Test.Barista;
+import helpers.BrewPolicy;
+import helpers.JsonLogger;
+import helpers.LatencyHistogram;
+import helpers.Menu;
+import helpers.VirtualBrewClock;
+
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+//plays the same stream of orders through the cafe once per BrewPolicy on a VirtualBrewClock and compares order -> ready time
+//the mix is mostly 1-2 cup orders, some 3-6 and a few 10-20 cup office runs, with some customers express. arrivals are poisson,
+//sized so the machines are 'load' busy on average - near 1 the queue (and the policy) decides almost everything
+//run (after mvn package): java -cp target/cafe.jar:target/test-classes bench.SchedulingSim orders=20000 load=0.85 express=0.2 seed=1
+public class SchedulingSim {
+    private static final PrintStream OUT = System.out; //the barista prints every event, results still go here
+    private static final long BREW_MILLIS = 30_000;
+    private static final int MACHINES = 2; //per machine type
+    private static final int BATCH_SIZE = 4;
+
+    public static void main(String[] args) throws Exception {
+        int orders = Integer.parseInt(Bench.arg(args, "orders", "20000"));
+        double load = Double.parseDouble(Bench.arg(args, "load", "0.85"));
+        double expressShare = Double.parseDouble(Bench.arg(args, "express", "0.2"));
+        long seed = Long.parseLong(Bench.arg(args, "seed", "1"));
+        long agingMillis = Long.parseLong(Bench.arg(args, "agingMillis", "10000"));
+
+        System.setProperty("cafe.log.file", Files.createTempFile("sim_logs", ".json").toString());
+        System.setProperty("cafe.log.overflow", "DROP");
+        System.setProperty("cafe.maxCustomerCups", String.valueOf(Integer.MAX_VALUE)); //measuring the cafe, not its admission limits
+        System.setProperty("cafe.maxCups", String.valueOf(Integer.MAX_VALUE));
+        Bench.muteStdout();
+
+        //cups per second both machine types together can brew, and the average order size of the mix below
+        double cupsPerSecond = 2 * MACHINES * BATCH_SIZE * 1000.0 / BREW_MILLIS;
+        double meanCups = 0.70 * 1.5 + 0.25 * 4.5 + 0.05 * 15;
+        double ordersPerSecond = load * cupsPerSecond / meanCups;
+        OUT.printf("%,d orders, %.2f orders/sec (load %.2f), %.0f%% express, %d tea + %d coffee machines x %d cups, %ds brews%n",
+                orders, ordersPerSecond, load, expressShare * 100, MACHINES, MACHINES, BATCH_SIZE, BREW_MILLIS / 1000);
+        OUT.printf("%-12s %10s %10s %10s %10s %12s %12s %12s%n", "policy", "mean s", "p50 s", "p99 s", "max s", "express p99", "1-2 cup p99", "10+ cup p99");
+
+        for (BrewPolicy.Order order : BrewPolicy.Order.values()) {
+            run(new BrewPolicy(order, agingMillis, 120_000, 30_000), orders, ordersPerSecond, expressShare, seed);
+        }
+        JsonLogger.shutdown();
+    }
+
+    private static void run(BrewPolicy policy, int orders, double ordersPerSecond, double expressShare, long seed) throws Exception {
+        VirtualBrewClock clock = new VirtualBrewClock();
+        Map<String, Integer> machineCounts = new HashMap<>();
+        machineCounts.put("tea", MACHINES);
+        machineCounts.put("coffee", MACHINES);
+        Barista barista = new Barista(Menu.standard(BREW_MILLIS), machineCounts, clock, BATCH_SIZE, 0, policy);
+
+        LatencyHistogram all = new LatencyHistogram();
+        LatencyHistogram express = new LatencyHistogram();
+        LatencyHistogram small = new LatencyHistogram();
+        LatencyHistogram large = new LatencyHistogram();
+        List<String> done = new ArrayList<>();
+        Random random = new Random(seed); //same seed, same orders for every policy
+
+        double arrival = 0;
+        for (int i = 0; i < orders; i++) {
+            arrival += -Math.log(1 - random.nextDouble()) / ordersPerSecond * 1000;
+            int cups = orderSize(random);
+            int tea = random.nextInt(cups + 1);
+            boolean isExpress = random.nextDouble() < expressShare;
+            String customerName = nameFor(i);
+
+            clock.advanceTo((long) arrival);
+            leave(barista, done);
+            long placedAt = clock.now();
+            barista.setExpress(customerName, isExpress);
+            barista.addClient(customerName, name -> {
+                long waited = clock.now() - placedAt;
+                all.record(waited);
+                if (isExpress) {
+                    express.record(waited);
+                }
+                if (cups <= 2) {
+                    small.record(waited);
+                } else if (cups >= 10) {
+                    large.record(waited);
+                }
+                done.add(name);
+            });
+            barista.placeOrder(customerName, tea == 0 ? cups + " coffee" : tea == cups ? cups + " tea" : tea + " tea and " + (cups - tea) + " coffee");
+        }
+        clock.runUntilIdle();
+        leave(barista, done);
+        OUT.printf("%-12s %10.1f %10.1f %10.1f %10.1f %12.1f %12.1f %12.1f%n", policy.getOrder().name().toLowerCase(),
+                all.getMean() / 1000, all.valueAt(50) / 1000.0, all.valueAt(99) / 1000.0, all.getMax() / 1000.0,
+                express.valueAt(99) / 1000.0, small.valueAt(99) / 1000.0, large.valueAt(99) / 1000.0);
+    }
+
+    //ready customers collect and go, so the cafe doesnt fill up with finished customers over a long run
+    private static void leave(Barista barista, List<String> done) {
+        for (String customerName : done) {
+            barista.collectOrder(customerName);
+            barista.removeClient(customerName);
+            barista.setExpress(customerName, false);
+        }
+        done.clear();
+    }
+
+    //70% 1-2 cups, 25% 3-6, 5% 10-20
+    private static int orderSize(Random random) {
+        double pick = random.nextDouble();
+        if (pick < 0.70) {
+            return 1 + random.nextInt(2);
+        }
+        if (pick < 0.95) {
+            return 3 + random.nextInt(4);
+        }
+        return 10 + random.nextInt(11);
+    }
+
+    //customer names can only have letters: 0 -> Sima, 27 -> Simbb
+    private static String nameFor(int index) {
+        StringBuilder name = new StringBuilder("Sim");
+        do {
+            name.append((char) ('a' + index % 26));
+            index /= 26;
+        } while (index > 0);
+        return name.toString();
+    }
+}
@@ -0,0 +1,162 @@
+package bench;
+
+import Cafe3Test.Barista;
+import helpers.CafeSnapshot;
+import helpers.JsonLogger;
+import helpers.Menu;
+import helpers.OrderParseException;
+import helpers.OrderRejectedException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//a cafe with lots of customers and orders brewing. times each part of a snapshot on its own - taking it, the totals, the top customers,
+//the oldest waiting order and the json export - then compares what 4 workers placing orders and reading status get done alone (workersAlone)
+//against the same workers with a thread taking snapshots back to back next to them (withSnapshots:worker), since taking one should not hold them up
+//run: mvn test-compile exec:exec -Djmh.args="SnapshotBench -p customers=200000"
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnapshotBench {
+    private static final int WORKERS = 4;
+
+    @State(Scope.Benchmark)
+    public static class Cafe {
+        @Param("200000")
+        int customers;
+
+        Barista barista;
+        CafeSnapshot snapshot; //one taken up front, for the parts that run over a snapshot
+        final AtomicInteger workers = new AtomicInteger();
+
+        @Setup
+        public void setUp() throws Exception {
+            Bench.cafeProperties();
+            System.setProperty("cafe.eta", "false");
+            Bench.muteStdout();
+            //long brews, so every customer still has cups waiting or brewing while the snapshots run
+            barista = new Barista(Menu.standard(600_000));
+            for (int i = 0; i < customers; i++) {
+                barista.placeOrder(nameFor(i), (1 + i % 3) + " tea and " + (1 + i % 5) + " coffee");
+            }
+            snapshot = barista.snapshot();
+        }
+
+        @TearDown
+        public void tearDown() {
+            JsonLogger.shutdown();
+        }
+    }
+
+    //each worker walks its own stripe of the customers
+    @State(Scope.Thread)
+    public static class Worker {
+        int next;
+
+        @Setup
+        public void setUp(Cafe cafe) {
+            next = cafe.workers.getAndIncrement();
+        }
+    }
+
+    @Benchmark
+    public CafeSnapshot take(Cafe cafe) {
+        return cafe.barista.snapshot();
+    }
+
+    @Benchmark
+    public CafeSnapshot.Totals totals(Cafe cafe) {
+        return cafe.snapshot.totals();
+    }
+
+    @Benchmark
+    public List<CafeSnapshot.Entry> top10(Cafe cafe) {
+        return cafe.snapshot.topOutstanding(10);
+    }
+
+    @Benchmark
+    public CafeSnapshot.Entry oldestWaiting(Cafe cafe) {
+        return cafe.snapshot.oldestWaiting();
+    }
+
+    @Benchmark
+    public void jsonExport(Cafe cafe) throws IOException {
+        try (Writer out = new BufferedWriter(Writer.nullWriter(), 64 * 1024)) {
+            cafe.snapshot.writeJson(out, 10);
+        }
+    }
+
+    //worker ops/sec with nothing else going on
+    @Benchmark
+    @Threads(WORKERS)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public String workersAlone(Cafe cafe, Worker worker) throws OrderParseException, OrderRejectedException {
+        return workerOp(cafe, worker);
+    }
+
+    //the same workers, next to a thread taking and exporting snapshots the whole time
+    @Benchmark
+    @Group("withSnapshots")
+    @GroupThreads(WORKERS)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public String worker(Cafe cafe, Worker worker) throws OrderParseException, OrderRejectedException {
+        return workerOp(cafe, worker);
+    }
+
+    @Benchmark
+    @Group("withSnapshots")
+    @GroupThreads(1)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void snapshots(Cafe cafe) throws IOException {
+        CafeSnapshot snapshot = cafe.barista.snapshot();
+        try (Writer out = new BufferedWriter(Writer.nullWriter(), 64 * 1024)) {
+            snapshot.writeJson(out, 10);
+        }
+    }
+
+    //one order in ten, status reads for the rest
+    private static String workerOp(Cafe cafe, Worker worker) throws OrderParseException, OrderRejectedException {
+        int i = worker.next;
+        worker.next = (i + WORKERS) % cafe.customers;
+        String customerName = nameFor(i);
+        if (i % 10 == 0) {
+            cafe.barista.placeOrder(customerName, "1 coffee");
+            return customerName;
+        }
+        return cafe.barista.getOrderStatus(customerName);
+    }
+
+    //customer names can only have letters: 0 -> Snapa, 27 -> Snapbb
+    private static String nameFor(int index) {
+        StringBuilder name = new StringBuilder("Snap");
+        do {
+            name.append((char) ('a' + index % 26));
+            index /= 26;
+        } while (index > 0);
+        return name.toString();
+    }
+}
@@ -0,0 +1,109 @@
+package bench;
+
+import Cafe3Test.Barista;
+import helpers.ClientHandler;
+import helpers.JsonLogger;
+import helpers.Menu;
+import helpers.OrderParseException;
+import helpers.OrderRejectedException;
+import helpers.ReplyWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+//bytes allocated per order status read - run it with -prof gc and read gc.alloc.rate.norm (bytes per op)
+//while a customer's order doesn't change every read should hand back the cached status and allocate nothing (~0 B/op);
+//framedPoll and legacyPoll are the whole request as a connection runs it (ClientHandler.handleLine, reply and flush) once the line is read;
+//changedOrder changes the order before every read, so it shows what rebuilding the status costs when it does have to happen
+//run: mvn test-compile exec:exec -Djmh.args="StatusAllocationBench -prof gc"
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatusAllocationBench {
+    private static final byte[] PREFIX = "Order status: ".getBytes(StandardCharsets.UTF_8);
+
+    private Barista barista;
+    private ReplyWriter writer;
+    private ClientHandler framed;
+    private ClientHandler legacy;
+
+    @Setup
+    public void setUp() throws IOException {
+        Bench.cafeProperties();
+        Bench.muteStdout();
+        barista = new Barista(Menu.standard(60_000));
+        writer = new ReplyWriter((bytes, length) -> { }); //a connection that takes anything
+        //nio style handlers, the lines are handed straight to them
+        framed = new ClientHandler(barista, writer);
+        framed.handleLine("CAFE/1 Bob");
+        framed.handleLine("1 order 2 tea and 1 coffee");
+        legacy = new ClientHandler(barista, writer);
+        legacy.handleLine("Carol");
+        legacy.handleLine("order 1 coffee");
+        writer.flush();
+    }
+
+    @TearDown
+    public void tearDown() {
+        JsonLogger.shutdown();
+    }
+
+    @Benchmark
+    public String cachedString() {
+        return barista.getOrderStatus("Bob");
+    }
+
+    @Benchmark
+    public byte[] cachedBytes() {
+        return barista.getOrderStatusBytes("Bob");
+    }
+
+    //bytes + framed reply into the writer
+    @Benchmark
+    public void framedReply() throws IOException {
+        writer.reply("42", true, PREFIX, barista.getOrderStatusBytes("Bob"));
+        writer.flush();
+    }
+
+    //'42 status' from a CAFE/1 customer
+    @Benchmark
+    public boolean framedPoll() {
+        boolean open = framed.handleLine("42 status");
+        writer.flush();
+        return open;
+    }
+
+    //'status' from a legacy customer
+    @Benchmark
+    public boolean legacyPoll() {
+        boolean open = legacy.handleLine("status");
+        writer.flush();
+        return open;
+    }
+
+    //every op queues another cup that stays on the machines for the whole run, so this one is a fixed number of ops
+    //(a timed run would pile up millions of them) - its time and gc.alloc.rate.norm are for the whole batch, divide by 10000 for one read
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5, batchSize = 10_000)
+    @Measurement(iterations = 10, batchSize = 10_000)
+    public byte[] changedOrder() throws OrderParseException, OrderRejectedException {
+        barista.placeOrder("Bob", "1 tea");
+        return barista.getOrderStatusBytes("Bob");
+    }
+}
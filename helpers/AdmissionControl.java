@@ -0,0 +1,123 @@
+package helpers;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+//how much the cafe takes on before it starts saying no, so too much load turns into quick refusals instead of queues, threads and memory
+//that grow until something falls over:
+//  maxCustomers    - connections at once, the rest are told the cafe is full as soon as they connect (each one is a thread in blocking mode)
+//  maxCustomerCups - cups one customer can have waiting or brewing
+//  maxCups         - cups the whole cafe has waiting or brewing
+//  maxWaitMillis   - orders that would take longer than this to brew are turned down with the estimate, 0 = no limit
+//the counts are reserved before anything is queued and given back as each cup is brewed or cancelled
+public class AdmissionControl {
+    private final int maxCustomers;
+    private final int maxCustomerCups;
+    private final int maxCups;
+    private final long maxWaitMillis;
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger cups = new AtomicInteger(); //waiting or brewing across the cafe
+    private final LongAdder connectionsShed = new LongAdder();
+    private final LongAdder ordersRejected = new LongAdder();
+
+    public AdmissionControl(int maxCustomers, int maxCustomerCups, int maxCups, long maxWaitMillis) {
+        if (maxCustomers < 1 || maxCustomerCups < 1 || maxCups < 1 || maxWaitMillis < 0) {
+            throw new IllegalArgumentException("Admission limits have to be positive");
+        }
+        this.maxCustomers = maxCustomers;
+        this.maxCustomerCups = maxCustomerCups;
+        this.maxCups = maxCups;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public static AdmissionControl unlimited() {
+        return new AdmissionControl(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 0);
+    }
+
+    //-Dcafe.maxCustomers=50000, -Dcafe.maxCustomerCups=100, -Dcafe.maxCups=100000, -Dcafe.maxWaitMillis=0
+    public static AdmissionControl fromSystemProperties() {
+        return new AdmissionControl(
+                Integer.getInteger("cafe.maxCustomers", 50_000),
+                Integer.getInteger("cafe.maxCustomerCups", 100),
+                Integer.getInteger("cafe.maxCups", 100_000),
+                Long.getLong("cafe.maxWaitMillis", 0));
+    }
+
+    //a new connection - false means turn it away now
+    public boolean tryConnect() {
+        while (true) {
+            int now = connections.get();
+            if (now >= maxCustomers) {
+                connectionsShed.increment();
+                return false;
+            }
+            if (connections.compareAndSet(now, now + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void disconnected() {
+        connections.decrementAndGet();
+    }
+
+    //takes 'ordered' cups for a customer who already has 'outstanding' on the go, throws without taking any if a limit says no
+    public void reserveCups(int outstanding, long ordered) throws OrderRejectedException {
+        if (ordered > maxCustomerCups - outstanding) {
+            ordersRejected.increment();
+            throw new OrderRejectedException(OrderRejectedException.Reason.CUSTOMER_LIMIT, -1,
+                    "you can have at most " + maxCustomerCups + " drinks on the go and already have " + outstanding);
+        }
+        while (true) {
+            int now = cups.get();
+            if (ordered > maxCups - now) {
+                ordersRejected.increment();
+                throw new OrderRejectedException(OrderRejectedException.Reason.CAFE_LIMIT, -1,
+                        "the cafe is too busy to take " + ordered + " more drinks, please try again later");
+            }
+            if (cups.compareAndSet(now, now + (int) ordered)) {
+                return;
+            }
+        }
+    }
+
+    //cups that come back after a restart are already owed, they dont get turned down
+    public void forceReserveCups(int ordered) {
+        cups.addAndGet(ordered);
+    }
+
+    //gives back cups taken with reserveCups - brewed, cancelled, or an order that didnt go ahead after all
+    public void releaseCups(int released) {
+        cups.addAndGet(-released);
+    }
+
+    //throws if an order that takes estimateMillis to brew is more than the cafe promises - the caller releases what it reserved
+    public void checkWait(long estimateMillis) throws OrderRejectedException {
+        if (maxWaitMillis > 0 && estimateMillis > maxWaitMillis) {
+            ordersRejected.increment();
+            throw new OrderRejectedException(OrderRejectedException.Reason.WAIT_TOO_LONG, estimateMillis,
+                    "the wait would be about " + formatWait(estimateMillis) + ", longer than the " + formatWait(maxWaitMillis) + " we promise");
+        }
+    }
+
+    public void collect(Map<String, Number> values) {
+        values.put("admission.connections", connections.get());
+        values.put("admission.connectionsShed", connectionsShed.sum());
+        values.put("admission.cupsOutstanding", cups.get());
+        values.put("admission.ordersRejected", ordersRejected.sum());
+    }
+
+    //'45s', '3 minutes' - what the customer is told
+    public static String formatWait(long millis) {
+        long seconds = shownWaitSeconds(millis);
+        return seconds < 120 ? seconds + "s" : seconds / 60 + " minutes";
+    }
+
+    //the wait as formatWait shows it, rounded up to whole seconds, or whole minutes from 2 minutes on - at least 1s
+    public static long shownWaitSeconds(long millis) {
+        long seconds = Math.max(1, (millis + 999) / 1000);
+        return seconds < 120 ? seconds : (seconds + 59) / 60 * 60;
+    }
+}
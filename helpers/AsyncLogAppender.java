@@ -0,0 +1,243 @@
+package helpers;
+
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+//log entries go into a lock-free ring buffer and one writer thread turns them into json lines on a long lived FileChannel
+//so a hot path only pays for a couple of CAS's instead of an open/write/close per message
+public class AsyncLogAppender implements AutoCloseable {
+
+    //how hard the writer tries to get entries onto disk
+    public enum Durability {
+        BUFFERED, //written when the batch buffer fills up or the flush interval passes - fastest, loses at most one interval on a crash
+        FLUSH,    //written every time the writer drains the ring - survives the process dying, not the machine
+        FSYNC     //written and forced to disk every batch - survives power loss, slowest
+    }
+
+    //what a caller does when the ring is full
+    public enum Overflow {
+        BLOCK, //wait for the writer to make room - back-pressure, nothing lost
+        DROP   //throw the entry away and count it - callers never wait
+    }
+
+    private static final int BATCH_BYTES = 64 * 1024;
+
+    private final Gson gson = new Gson();
+    private final FileChannel channel;
+    private final Durability durability;
+    private final Overflow overflow;
+    private final long flushIntervalNanos;
+
+    //bounded multi producer / single consumer ring, each slot has a sequence number saying whose turn it is (producer or writer)
+    private final int mask;
+    private final AtomicReferenceArray<Object> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong(0); //next slot a producer claims
+    private long head = 0; //next slot the writer reads, only touched by the writer thread
+
+    private final Thread writerThread;
+    private volatile boolean writerParked = false;
+    private volatile boolean closed = false;
+    private volatile boolean failed = false; //the writer hit an io error and stopped - nobody is going to empty the ring again
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+
+    //writer thread only
+    private final StringBuilder line = new StringBuilder(256);
+    private final ByteBuffer batch = ByteBuffer.allocateDirect(BATCH_BYTES);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private long lastWrite = System.nanoTime();
+
+    public AsyncLogAppender(Path file, int capacity, long flushIntervalMillis, Durability durability, Overflow overflow) throws IOException {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ring capacity has to be a power of two, got " + capacity);
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.durability = durability;
+        this.overflow = overflow;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.mask = capacity - 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.writerThread = new Thread(this::drainLoop, "json-log-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    //settings come from -Dcafe.log.capacity, -Dcafe.log.flushMillis, -Dcafe.log.durability and -Dcafe.log.overflow
+    public static AsyncLogAppender fromSystemProperties(String defaultFile) throws IOException {
+        return new AsyncLogAppender(
+                Paths.get(System.getProperty("cafe.log.file", defaultFile)),
+                Integer.getInteger("cafe.log.capacity", 8192),
+                Long.getLong("cafe.log.flushMillis", 200),
+                Durability.valueOf(System.getProperty("cafe.log.durability", "BUFFERED").toUpperCase()),
+                Overflow.valueOf(System.getProperty("cafe.log.overflow", "BLOCK").toUpperCase()));
+    }
+
+    //returns false if the entry was dropped (ring full with DROP, or the appender is closed or its writer failed)
+    public boolean append(Object entry) {
+        while (!closed && !failed) {
+            if (offer(entry)) {
+                if (writerParked) {
+                    LockSupport.unpark(writerThread);
+                }
+                return true;
+            }
+            if (overflow == Overflow.DROP) {
+                break;
+            }
+            LockSupport.unpark(writerThread); //ring is full, make sure the writer is awake and give it a moment
+            LockSupport.parkNanos(50_000);
+        }
+        dropped.increment();
+        return false;
+    }
+
+    private boolean offer(Object entry) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.lazySet(index, entry);
+                    sequences.set(index, position + 1); //publishes the entry to the writer
+                    return true;
+                }
+            } else if (difference < 0) {
+                return false; //the writer hasnt freed this slot yet - full
+            }
+            //another producer got this slot first, try the next one
+        }
+    }
+
+    private Object poll() {
+        int index = (int) (head & mask);
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        Object entry = slots.get(index);
+        slots.lazySet(index, null);
+        sequences.set(index, head + mask + 1); //hand the slot back to the producers for the next lap
+        head++;
+        return entry;
+    }
+
+    private void drainLoop() {
+        try {
+            while (true) {
+                boolean wasClosed = closed; //read before draining, so nothing appended before close() is missed
+                int drained = 0;
+                Object entry;
+                while ((entry = poll()) != null) {
+                    encode(entry);
+                    drained++;
+                }
+                if (wasClosed) {
+                    writeBatch(true);
+                    return;
+                }
+                if (drained > 0 && durability != Durability.BUFFERED) {
+                    writeBatch(durability == Durability.FSYNC);
+                } else if (batch.position() > 0 && System.nanoTime() - lastWrite >= flushIntervalNanos) {
+                    writeBatch(false);
+                }
+                if (drained == 0) {
+                    writerParked = true;
+                    if (isEmpty() && !closed) { //double check after advertising we're parked, or a producer could miss the unpark
+                        LockSupport.parkNanos(this, flushIntervalNanos > 0 ? flushIntervalNanos : TimeUnit.MILLISECONDS.toNanos(1));
+                    }
+                    writerParked = false;
+                }
+            }
+        } catch (IOException e) {
+            //a BLOCK caller would wait for room for ever - from here on everything is dropped and counted, including what is still in the ring
+            failed = true;
+            System.out.println("Log writer failed, log entries are being dropped: " + e.getMessage());
+            e.printStackTrace();
+            while (poll() != null) {
+                dropped.increment();
+            }
+        }
+    }
+
+    private boolean isEmpty() {
+        return sequences.get((int) (head & mask)) != head + 1;
+    }
+
+    private void encode(Object entry) throws IOException {
+        line.setLength(0);
+        gson.toJson(entry, line);
+        line.append('\n');
+        CharBuffer chars = CharBuffer.wrap(line);
+        while (true) {
+            CoderResult result = encoder.encode(chars, batch, true);
+            if (!result.isOverflow()) {
+                break;
+            }
+            writeBatch(false); //batch buffer is full, push it out and keep encoding
+        }
+        encoder.reset();
+        written.increment();
+        if (batch.remaining() < 1024) {
+            writeBatch(false);
+        }
+    }
+
+    private void writeBatch(boolean force) throws IOException {
+        batch.flip();
+        while (batch.hasRemaining()) {
+            channel.write(batch);
+        }
+        batch.clear();
+        if (force) {
+            channel.force(false);
+        }
+        lastWrite = System.nanoTime();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    //stops taking new entries, waits for everything already in the ring to reach the file, then closes it
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(5));
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.out.println("Error closing the log file: " + e.getMessage());
+        }
+    }
+}
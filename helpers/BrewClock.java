@@ -0,0 +1,17 @@
+package helpers;
+
+//where brewing gets its time from - a brew is a timer callback, so nothing sits in Thread.sleep while a cup brews
+//SystemBrewClock uses real time, VirtualBrewClock only moves when told to (tests, simulations, capacity planning)
+public interface BrewClock {
+
+    //milliseconds, only meaningful compared to other now() values from the same clock
+    long now();
+
+    //runs task once delayMillis have passed on this clock
+    Timeout schedule(long delayMillis, Runnable task);
+
+    interface Timeout {
+        //true if the task had not run yet and now never will
+        boolean cancel();
+    }
+}
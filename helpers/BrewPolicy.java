@@ -0,0 +1,83 @@
+package helpers;
+
+//which waiting cup a free machine takes next
+//FAIR is how the machines always worked - one cup per customer in turn. the others give every cup a rank when it is queued and
+//the lowest rank goes first:
+//  FIFO     - the oldest cup
+//  SHORTEST - the smallest order, aged: every agingMillis a cup has waited counts as one cup less, so a big order overtakes
+//             small ones that arrived more than (its size - their size) * agingMillis after it and is never starved
+//  DEADLINE - the earliest due time, queued + slaMillis, or + expressSlaMillis for express customers. a normal cup that has waited
+//             (slaMillis - expressSlaMillis) goes ahead of newly arrived express ones, so the deadline is the aging
+public final class BrewPolicy {
+
+    public enum Order {
+        FAIR,
+        FIFO,
+        SHORTEST,
+        DEADLINE
+    }
+
+    private final Order order;
+    private final long agingMillis;
+    private final long slaMillis;
+    private final long expressSlaMillis;
+
+    public BrewPolicy(Order order, long agingMillis, long slaMillis, long expressSlaMillis) {
+        if (agingMillis < 0 || slaMillis < 0 || expressSlaMillis < 0) {
+            throw new IllegalArgumentException("Brew policy times cant be negative");
+        }
+        this.order = order;
+        this.agingMillis = agingMillis;
+        this.slaMillis = slaMillis;
+        this.expressSlaMillis = expressSlaMillis;
+    }
+
+    public static BrewPolicy fair() {
+        return new BrewPolicy(Order.FAIR, 0, 0, 0);
+    }
+
+    public static BrewPolicy of(Order order) {
+        return new BrewPolicy(order, 10_000, 120_000, 30_000);
+    }
+
+    //-Dcafe.policy=fair|fifo|shortest|deadline, -Dcafe.policy.agingMillis=10000, -Dcafe.sla.millis=120000, -Dcafe.sla.expressMillis=30000
+    public static BrewPolicy fromSystemProperties() {
+        return new BrewPolicy(
+                Order.valueOf(System.getProperty("cafe.policy", "FAIR").toUpperCase()),
+                Long.getLong("cafe.policy.agingMillis", 10_000),
+                Long.getLong("cafe.sla.millis", 120_000),
+                Long.getLong("cafe.sla.expressMillis", 30_000));
+    }
+
+    public Order getOrder() {
+        return order;
+    }
+
+    public boolean isFair() {
+        return order == Order.FAIR;
+    }
+
+    //lower goes first. queuedAt is on the brew clock, orderCups is how many cups the whole order has
+    long rank(long queuedAt, int orderCups, boolean express) {
+        switch (order) {
+            case SHORTEST:
+                return queuedAt + Math.min(orderCups, 1_000_000) * agingMillis;
+            case DEADLINE:
+                return queuedAt + (express ? expressSlaMillis : slaMillis);
+            default:
+                return queuedAt;
+        }
+    }
+
+    @Override
+    public String toString() {
+        switch (order) {
+            case SHORTEST:
+                return "shortest order first, aging " + agingMillis + "ms per cup";
+            case DEADLINE:
+                return "earliest deadline, sla " + slaMillis + "ms / express " + expressSlaMillis + "ms";
+            default:
+                return order.name().toLowerCase();
+        }
+    }
+}
@@ -0,0 +1,681 @@
+package helpers;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+//the machines of one type (tea, coffee...) - at most 'capacity' batches brew at once, the rest of the cups wait until a machine is free
+//a machine brews up to batchSize cups of the same drink in one go (one brew time for the lot), picked from every customer waiting for that drink:
+//  round-robin between customers - one cup each in turn, so a customer who ordered 10 teas cant fill every batch while someone with 1 tea waits
+//  round-robin between drinks that share the machine type
+//  or with any other BrewPolicy, the lowest ranked cups first - the drink whose best cup ranks lowest gets the free machine
+//  maxBatchWaitMillis > 0 lets a free machine hold off a part-full batch until the oldest cup has waited that long, in case more arrive
+//a brew is just a timer on the BrewClock, no thread is held while a batch brews - when it fires the machine goes straight to the next batch
+//cancel(customer) takes a customer who left out of the queue and off the machines - a batch with none of its cups wanted any more
+//has its timer cancelled and the machine goes to the next batch there and then
+//after each batch starts or finishes and each cancel the machines work out when every customer's cups of this type should be done
+//(projectReadyTimes) and hand that to the ReadyTimes listener, which is how the customers get their ready estimates
+public class BrewingMachines {
+    private final String machineType;
+    private final int capacity;
+    private final int batchSize;
+    private final long maxBatchWaitMillis;
+    private final BrewClock clock;
+    private final BrewPolicy policy;
+    private final AtomicLong nextSequence = new AtomicLong(); //ties between equal ranks go to whoever was queued first
+    private final Map<Menu.Item, DrinkQueue> drinks = new HashMap<>(); //guarded by this
+    private final ArrayDeque<DrinkQueue> drinkTurns = new ArrayDeque<>(); //drinks with cups waiting, next to go first - guarded by this
+    private int queued = 0; //cups waiting for a machine, guarded by this
+    private int busy = 0; //machines currently brewing, guarded by this
+    private final Set<Batch> running = new HashSet<>(); //batches on a machine, guarded by this
+    private final Set<Brew> away = new HashSet<>(); //cups another node is brewing for us, guarded by this
+    private BrewClock.Timeout batchTimer; //waiting for a part-full batch to fill up, guarded by this
+    private long batchTimerDue;
+    private final CafeMetrics metrics;
+    private final LongAdder busyMillis = new LongAdder(); //machine time spent brewing, for utilisation
+    private final LongAdder lockWaitNanos = new LongAdder(); //time spent getting into the synchronized blocks - shows contention on the queue
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder cupsBrewed = new LongAdder();
+    private volatile ReadyTimes readyTimes; //null = nobody wants the projections, none are worked out
+    private long projections = 0; //numbers each projection so a listener can drop one that arrives after a newer one, guarded by this
+
+    //told where each customer's cups should be done, as clock times - customers with nothing of this type on the go arent in it
+    //version goes up with every projection, the listener is called outside the lock so two can arrive out of order
+    public interface ReadyTimes {
+        void projected(BrewingMachines machines, long version, Map<String, Long> readyAt);
+    }
+
+    //one cup per brew, first come first served - how the cafe brewed before batching
+    public BrewingMachines(String machineType, int capacity, BrewClock clock, CafeMetrics metrics) {
+        this(machineType, capacity, 1, 0, clock, metrics);
+    }
+
+    public BrewingMachines(String machineType, int capacity, int batchSize, long maxBatchWaitMillis, BrewClock clock, CafeMetrics metrics) {
+        this(machineType, capacity, batchSize, maxBatchWaitMillis, BrewPolicy.fair(), clock, metrics);
+    }
+
+    public BrewingMachines(String machineType, int capacity, int batchSize, long maxBatchWaitMillis, BrewPolicy policy, BrewClock clock, CafeMetrics metrics) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Need at least one " + machineType + " machine, got " + capacity);
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("A " + machineType + " batch needs at least one cup, got " + batchSize);
+        }
+        this.machineType = machineType;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.maxBatchWaitMillis = maxBatchWaitMillis;
+        this.policy = policy;
+        this.clock = clock;
+        this.metrics = metrics;
+    }
+
+    //queue one cup of the item for the customer, onBrewed runs on the clock's thread once the cup is done
+    public void brew(String customerName, Menu.Item item, int cup, Runnable onBrewed) {
+        brew(customerName, item, cup, 1, false, onBrewed);
+    }
+
+    //orderCups (the size of the whole order) and express only matter to the SHORTEST and DEADLINE policies
+    public void brew(String customerName, Menu.Item item, int cup, int orderCups, boolean express, Runnable onBrewed) {
+        long now = clock.now();
+        Brew brew = new Brew(customerName, item, cup, onBrewed, now, policy.rank(now, orderCups, express), nextSequence.getAndIncrement());
+        metrics.cupQueued(item);
+        enqueue(brew);
+    }
+
+    private void enqueue(Brew brew) {
+        List<Batch> starting;
+        long asked = System.nanoTime();
+        synchronized (this) {
+            lockWaitNanos.add(System.nanoTime() - asked);
+            DrinkQueue drink = drinks.computeIfAbsent(brew.item, key -> new DrinkQueue(policy.isFair()));
+            if (drink.isEmpty()) {
+                drinkTurns.addLast(drink);
+            }
+            drink.add(brew);
+            queued++;
+            starting = dispatch();
+        }
+        startAll(starting);
+    }
+
+    //roughly how long until 'cups' more cups of the item would be brewed if they went to the back of the queue now:
+    //until the first machine is free, then a brew for every round of full batches ahead of and including them
+    public long estimateMillis(Menu.Item item, int cups) {
+        long now = clock.now();
+        long perRound = (long) capacity * batchSize;
+        synchronized (this) {
+            long firstFree = 0;
+            if (busy >= capacity) {
+                firstFree = Long.MAX_VALUE;
+                for (Batch batch : running) {
+                    firstFree = Math.min(firstFree, Math.max(0, batch.startedAt + batch.cups.get(0).item.getBrewMillis() - now));
+                }
+                if (firstFree == Long.MAX_VALUE) {
+                    firstFree = 0;
+                }
+            }
+            long rounds = (queued + (long) cups + perRound - 1) / perRound;
+            return firstFree + rounds * item.getBrewMillis();
+        }
+    }
+
+    public void setReadyTimes(ReadyTimes readyTimes) {
+        this.readyTimes = readyTimes;
+    }
+
+    //works out and hands on a new projection now - for after a customer's cups are all queued, batch starts already do it
+    public void publishReadyTimes() {
+        ReadyTimes listener = readyTimes;
+        if (listener == null) {
+            return;
+        }
+        Map<String, Long> readyAt;
+        long version;
+        long asked = System.nanoTime();
+        synchronized (this) {
+            lockWaitNanos.add(System.nanoTime() - asked);
+            version = ++projections;
+            readyAt = projectReadyTimes();
+        }
+        listener.projected(this, version, readyAt);
+    }
+
+    //when each customer's last cup of this type should be done if nothing more is ordered or cancelled: the batches on the machines
+    //finish on time, and the waiting cups go out in the order dispatch would take them, each batch to whichever machine is free first
+    //held part-full batches are counted as starting straight away, so with batchWaitMillis it is a little early
+    private Map<String, Long> projectReadyTimes() {
+        long now = clock.now();
+        Map<String, Long> readyAt = new HashMap<>();
+        PriorityQueue<Long> freeAt = new PriorityQueue<>(capacity);
+        for (Batch batch : running) {
+            long done = Math.max(now, batch.startedAt + batch.cups.get(0).item.getBrewMillis());
+            freeAt.add(done);
+            for (Brew brew : batch.cups) {
+                if (!brew.cancelled) {
+                    readyAt.merge(brew.customerName, done, Math::max);
+                }
+            }
+        }
+        for (int free = running.size(); free < capacity; free++) {
+            freeAt.add(now);
+        }
+        for (Brew brew : away) {
+            readyAt.merge(brew.customerName, Math.max(now, brew.startedAt + brew.item.getBrewMillis()), Math::max);
+        }
+
+        //each drink's cups in take order, then a batch at a time from the drink whose turn it is - or whose next cup ranks lowest
+        List<List<Brew>> lines = new ArrayList<>(drinkTurns.size());
+        for (DrinkQueue drink : drinkTurns) {
+            lines.add(drink.inTakeOrder());
+        }
+        int[] taken = new int[lines.size()];
+        int turn = 0;
+        while (true) {
+            int next = -1;
+            for (int i = 0; i < lines.size(); i++) {
+                int line = policy.isFair() ? (turn + i) % lines.size() : i;
+                if (taken[line] == lines.get(line).size()) {
+                    continue;
+                }
+                if (policy.isFair()) {
+                    next = line;
+                    break;
+                }
+                if (next < 0 || lines.get(line).get(taken[line]).compareTo(lines.get(next).get(taken[next])) < 0) {
+                    next = line;
+                }
+            }
+            if (next < 0) {
+                return readyAt;
+            }
+            turn = next + 1;
+            List<Brew> line = lines.get(next);
+            int end = Math.min(line.size(), taken[next] + batchSize);
+            long done = freeAt.poll() + line.get(0).item.getBrewMillis();
+            freeAt.add(done);
+            for (int cup = taken[next]; cup < end; cup++) {
+                readyAt.merge(line.get(cup).customerName, done, Math::max);
+            }
+            taken[next] = end;
+        }
+    }
+
+    //machines with nothing to do and nothing queued - this node could brew another node's cups on them
+    public synchronized int idleMachines() {
+        return queued == 0 ? capacity - busy : 0;
+    }
+
+    //hands up to max queued cups to another node, taken round-robin like a batch. only cups beyond what every machine here
+    //would pick up next go, so nothing is given away that would have started here just as soon
+    //the cups still count as waiting in the metrics until brewedElsewhere
+    public List<Brew> giveAway(int max) {
+        List<Brew> cups = new ArrayList<>();
+        synchronized (this) {
+            int spare = Math.min(max, queued - capacity * batchSize);
+            while (cups.size() < spare && !drinkTurns.isEmpty()) {
+                DrinkQueue drink = nextDrink(null);
+                cups.addAll(drink.take(spare - cups.size()));
+                if (!drink.isEmpty()) {
+                    drinkTurns.addLast(drink);
+                }
+            }
+            queued -= cups.size();
+            away.addAll(cups);
+        }
+        long now = clock.now();
+        for (Brew brew : cups) {
+            brew.startedAt = now;
+        }
+        return cups;
+    }
+
+    //another node brewed a cup from giveAway, it goes to the customer here like any other cup - unless they have left since
+    public void brewedElsewhere(Brew brew) {
+        synchronized (this) {
+            if (!away.remove(brew)) {
+                return;
+            }
+        }
+        long now = clock.now();
+        metrics.cupStarted(brew.item, brew.startedAt - brew.queuedAt);
+        metrics.cupBrewed(brew.item, now - brew.startedAt);
+        cupsBrewed.increment();
+        brew.onBrewed.run();
+    }
+
+    //the other node never finished it - back in the queue here
+    public void takeBack(Brew brew) {
+        synchronized (this) {
+            if (!away.remove(brew)) {
+                return;
+            }
+        }
+        enqueue(brew);
+    }
+
+    //the customer left - drops their waiting cups and takes theirs out of the batches on the machines, returns how many cups went
+    //cups another node is brewing for them are finished over there and thrown away when they come back
+    public int cancel(String customerName) {
+        List<Brew> waiting = new ArrayList<>();
+        List<Brew> brewing = new ArrayList<>();
+        List<Batch> starting;
+        long asked = System.nanoTime();
+        synchronized (this) {
+            lockWaitNanos.add(System.nanoTime() - asked);
+            for (Iterator<DrinkQueue> it = drinkTurns.iterator(); it.hasNext(); ) {
+                DrinkQueue drink = it.next();
+                drink.removeCustomer(customerName, waiting);
+                if (drink.isEmpty()) {
+                    it.remove();
+                }
+            }
+            queued -= waiting.size();
+            for (Iterator<Brew> it = away.iterator(); it.hasNext(); ) {
+                Brew brew = it.next();
+                if (brew.customerName.equals(customerName)) {
+                    it.remove();
+                    waiting.add(brew);
+                }
+            }
+            long now = clock.now();
+            for (Iterator<Batch> it = running.iterator(); it.hasNext(); ) {
+                Batch batch = it.next();
+                for (Brew brew : batch.cups) {
+                    if (!brew.cancelled && brew.customerName.equals(customerName)) {
+                        brew.cancelled = true;
+                        batch.live--;
+                        brewing.add(brew);
+                    }
+                }
+                if (batch.live == 0) {
+                    //nobody left to brew it for, the machine is free now rather than when the timer would have fired
+                    it.remove();
+                    if (batch.timer != null) {
+                        batch.timer.cancel();
+                    }
+                    busyMillis.add(now - batch.startedAt);
+                    busy--;
+                }
+            }
+            starting = dispatch();
+        }
+        for (Brew brew : waiting) {
+            metrics.cupCancelled(brew.item, false);
+        }
+        for (Brew brew : brewing) {
+            metrics.cupCancelled(brew.item, true);
+        }
+        if (!startAll(starting) && (!waiting.isEmpty() || !brewing.isEmpty())) {
+            publishReadyTimes();
+        }
+        return waiting.size() + brewing.size();
+    }
+
+    //hands batches to free machines - returns them so they are started outside the lock
+    private List<Batch> dispatch() {
+        List<Batch> starting = null;
+        List<DrinkQueue> held = null; //drinks holding out for a fuller batch, once every waiting drink has had a look we stop
+        while (busy < capacity && drinkTurns.size() > (held == null ? 0 : held.size())) {
+            DrinkQueue drink = nextDrink(held);
+            if (drink.size() < batchSize && maxBatchWaitMillis > 0) {
+                long waited = clock.now() - drink.oldestQueuedAt();
+                if (waited < maxBatchWaitMillis) {
+                    drinkTurns.addLast(drink);
+                    if (held == null) {
+                        held = new ArrayList<>(2);
+                    }
+                    held.add(drink);
+                    scheduleBatchTimer(maxBatchWaitMillis - waited);
+                    continue;
+                }
+            }
+            Batch batch = new Batch(drink.take(batchSize), clock.now());
+            queued -= batch.cups.size();
+            if (!drink.isEmpty()) {
+                drinkTurns.addLast(drink);
+            }
+            busy++;
+            running.add(batch);
+            if (starting == null) {
+                starting = new ArrayList<>(2);
+            }
+            starting.add(batch);
+        }
+        return starting;
+    }
+
+    //takes the drink that goes next out of drinkTurns, skipping held ones - the next in turn, or the one with the lowest ranked cup
+    private DrinkQueue nextDrink(List<DrinkQueue> held) {
+        if (policy.isFair()) {
+            while (true) {
+                DrinkQueue drink = drinkTurns.pollFirst();
+                if (held == null || !held.contains(drink)) {
+                    return drink;
+                }
+                drinkTurns.addLast(drink);
+            }
+        }
+        DrinkQueue best = null;
+        for (DrinkQueue drink : drinkTurns) {
+            if ((held == null || !held.contains(drink)) && (best == null || drink.peek().compareTo(best.peek()) < 0)) {
+                best = drink;
+            }
+        }
+        drinkTurns.remove(best);
+        return best;
+    }
+
+    private void scheduleBatchTimer(long delayMillis) {
+        long due = clock.now() + delayMillis;
+        if (batchTimer != null) {
+            if (batchTimerDue <= due) {
+                return; //already waking up in time
+            }
+            batchTimer.cancel();
+        }
+        batchTimerDue = due;
+        batchTimer = clock.schedule(delayMillis, this::batchWaitOver);
+    }
+
+    private void batchWaitOver() {
+        List<Batch> starting;
+        synchronized (this) {
+            batchTimer = null;
+            starting = dispatch();
+        }
+        startAll(starting);
+    }
+
+    //starts the batches and, if there were any, tells the ReadyTimes listener - returns whether anything started
+    private boolean startAll(List<Batch> starting) {
+        if (starting == null) {
+            return false;
+        }
+        for (Batch batch : starting) {
+            start(batch);
+        }
+        publishReadyTimes();
+        return true;
+    }
+
+    private void start(Batch batch) {
+        Menu.Item item = batch.cups.get(0).item;
+        StringBuilder who = new StringBuilder();
+        for (Brew brew : batch.cups) {
+            metrics.cupStarted(item, batch.startedAt - brew.queuedAt);
+            if (who.length() > 0) {
+                who.append(", ");
+            }
+            who.append(brew.customerName).append(" (").append(brew.cup).append(')');
+        }
+        System.out.println("Brewing " + batch.cups.size() + " " + item.getName().toLowerCase() + " for " + who);
+        batches.increment();
+        BrewClock.Timeout timer = clock.schedule(item.getBrewMillis(), () -> finish(batch));
+        synchronized (this) {
+            if (running.contains(batch)) {
+                batch.timer = timer;
+            } else {
+                timer.cancel(); //everyone in it left before it even got going
+            }
+        }
+    }
+
+    private void finish(Batch batch) {
+        synchronized (this) {
+            if (!running.remove(batch)) {
+                return; //cancelled, the machine has moved on already
+            }
+        }
+        long brewed = clock.now() - batch.startedAt;
+        busyMillis.add(brewed);
+        try {
+            //each cup goes back to the customer it was brewed for, if they are still here
+            for (Brew brew : batch.cups) {
+                if (!brew.cancelled) {
+                    cupsBrewed.increment();
+                    metrics.cupBrewed(brew.item, brewed);
+                    brew.onBrewed.run();
+                }
+            }
+        } finally {
+            //hand the machine straight to the next batch, it never counts as free in between
+            List<Batch> starting;
+            long asked = System.nanoTime();
+            synchronized (this) {
+                lockWaitNanos.add(System.nanoTime() - asked);
+                busy--;
+                starting = dispatch();
+            }
+            if (!startAll(starting)) {
+                publishReadyTimes(); //nothing next, but this batch's customers are done
+            }
+        }
+    }
+
+    public String getMachineType() {
+        return machineType;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public synchronized int getBrewing() {
+        return busy;
+    }
+
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    public long getBusyMillis() {
+        return busyMillis.sum();
+    }
+
+    public long getLockWaitNanos() {
+        return lockWaitNanos.sum();
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public long getCupsBrewed() {
+        return cupsBrewed.sum();
+    }
+
+    public BrewPolicy getPolicy() {
+        return policy;
+    }
+
+    //how long the longest waiting cup has been queued, 0 if none - if this keeps growing something is being starved
+    public synchronized long getOldestWaitMillis() {
+        long oldest = Long.MAX_VALUE;
+        for (DrinkQueue drink : drinkTurns) {
+            oldest = Math.min(oldest, drink.oldestQueuedAt());
+        }
+        return oldest == Long.MAX_VALUE ? 0 : clock.now() - oldest;
+    }
+
+    //the cups waiting for one drink - a queue per customer taken in turns, or with a ranking policy one queue by rank
+    private static final class DrinkQueue {
+        private final Map<String, ArrayDeque<Brew>> byCustomer = new HashMap<>();
+        private final ArrayDeque<ArrayDeque<Brew>> customerTurns = new ArrayDeque<>(); //customers with cups waiting, next to get a cup first
+        private final PriorityQueue<Brew> ranked; //null for FAIR
+        private int size = 0;
+
+        DrinkQueue(boolean fair) {
+            this.ranked = fair ? null : new PriorityQueue<>();
+        }
+
+        void add(Brew brew) {
+            size++;
+            if (ranked != null) {
+                ranked.add(brew);
+                return;
+            }
+            ArrayDeque<Brew> cups = byCustomer.get(brew.customerName);
+            if (cups == null) {
+                cups = new ArrayDeque<>();
+                byCustomer.put(brew.customerName, cups);
+                customerTurns.addLast(cups);
+            }
+            cups.addLast(brew);
+        }
+
+        //one cup from each customer in turn until the batch is full, or the lowest ranked cups
+        List<Brew> take(int max) {
+            List<Brew> batch = new ArrayList<>(Math.min(max, size));
+            while (ranked != null && batch.size() < max && !ranked.isEmpty()) {
+                batch.add(ranked.poll());
+            }
+            while (batch.size() < max && !customerTurns.isEmpty()) {
+                ArrayDeque<Brew> cups = customerTurns.pollFirst();
+                Brew brew = cups.pollFirst();
+                batch.add(brew);
+                if (cups.isEmpty()) {
+                    byCustomer.remove(brew.customerName);
+                } else {
+                    customerTurns.addLast(cups);
+                }
+            }
+            size -= batch.size();
+            return batch;
+        }
+
+        //takes all of one customer's cups out, into removed
+        void removeCustomer(String customerName, List<Brew> removed) {
+            if (ranked != null) {
+                for (Iterator<Brew> it = ranked.iterator(); it.hasNext(); ) {
+                    Brew brew = it.next();
+                    if (brew.customerName.equals(customerName)) {
+                        it.remove();
+                        removed.add(brew);
+                        size--;
+                    }
+                }
+                return;
+            }
+            ArrayDeque<Brew> cups = byCustomer.remove(customerName);
+            if (cups != null) {
+                customerTurns.remove(cups);
+                removed.addAll(cups);
+                size -= cups.size();
+            }
+        }
+
+        //the waiting cups in the order take() would hand them out
+        List<Brew> inTakeOrder() {
+            List<Brew> cups = new ArrayList<>(size);
+            if (ranked != null) {
+                cups.addAll(ranked);
+                cups.sort(null);
+                return cups;
+            }
+            ArrayDeque<Iterator<Brew>> turns = new ArrayDeque<>(customerTurns.size());
+            for (ArrayDeque<Brew> customer : customerTurns) {
+                turns.addLast(customer.iterator());
+            }
+            while (!turns.isEmpty()) {
+                Iterator<Brew> customer = turns.pollFirst();
+                cups.add(customer.next());
+                if (customer.hasNext()) {
+                    turns.addLast(customer);
+                }
+            }
+            return cups;
+        }
+
+        //each customer's cups are in the order they came, so the oldest is at the front of one of them
+        long oldestQueuedAt() {
+            long oldest = Long.MAX_VALUE;
+            if (ranked != null) {
+                for (Brew brew : ranked) {
+                    oldest = Math.min(oldest, brew.queuedAt);
+                }
+                return oldest;
+            }
+            for (ArrayDeque<Brew> cups : customerTurns) {
+                oldest = Math.min(oldest, cups.peekFirst().queuedAt);
+            }
+            return oldest;
+        }
+
+        //the lowest ranked cup, ranking policies only
+        Brew peek() {
+            return ranked.peek();
+        }
+
+        int size() {
+            return size;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+    }
+
+    //cups brewing together on one machine, guarded by the BrewingMachines
+    private static final class Batch {
+        private final List<Brew> cups;
+        private final long startedAt;
+        private BrewClock.Timeout timer;
+        private int live; //cups whose customer is still here
+
+        Batch(List<Brew> cups, long startedAt) {
+            this.cups = cups;
+            this.startedAt = startedAt;
+            this.live = cups.size();
+        }
+    }
+
+    //one cup for one customer
+    public static final class Brew implements Comparable<Brew> {
+        private final String customerName;
+        private final Menu.Item item;
+        private final int cup;
+        private final Runnable onBrewed;
+        private final long queuedAt;
+        private final long rank; //from the BrewPolicy, lower brews first
+        private final long sequence;
+        private long startedAt; //when it was given away
+        private boolean cancelled; //customer left while it was on a machine, guarded by the BrewingMachines
+
+        Brew(String customerName, Menu.Item item, int cup, Runnable onBrewed, long queuedAt, long rank, long sequence) {
+            this.customerName = customerName;
+            this.item = item;
+            this.cup = cup;
+            this.onBrewed = onBrewed;
+            this.queuedAt = queuedAt;
+            this.rank = rank;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Brew other) {
+            int byRank = Long.compare(rank, other.rank);
+            return byRank != 0 ? byRank : Long.compare(sequence, other.sequence);
+        }
+
+        public String getCustomerName() {
+            return customerName;
+        }
+
+        public Menu.Item getItem() {
+            return item;
+        }
+    }
+}
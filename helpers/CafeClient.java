@@ -0,0 +1,241 @@
+package helpers;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+//client side of the CAFE/1 protocol (see ClientHandler) - every command gets an id, so lots can be in flight on one connection
+//and each reply completes its own future whatever order things come back in. pushes ('* ...') go to the push listener
+//if the connection drops, resume() with the same name and getSessionToken() comes back to the same orders and gets the pushes it missed
+public class CafeClient implements AutoCloseable {
+    private final Socket socket;
+    private final OutputStream out;
+    private final LineReader reader;
+    private final Consumer<String> pushListener;
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final ConcurrentHashMap<Long, Pending> pending = new ConcurrentHashMap<>();
+    private final Thread readerThread;
+    private volatile boolean closed = false;
+    private volatile boolean connected = true; //false once the server side has gone
+    private String sessionToken; //from the hello reply, null from a server without sessions
+
+    private CafeClient(Socket socket, Consumer<String> pushListener) throws IOException {
+        this.socket = socket;
+        this.out = new BufferedOutputStream(socket.getOutputStream(), 8192);
+        this.reader = new LineReader(socket.getInputStream(), 64 * 1024);
+        this.pushListener = pushListener;
+        this.readerThread = new Thread(this::readReplies, "cafe-client-reader");
+        this.readerThread.setDaemon(true);
+    }
+
+    //connects and says hello - throws if the server turns the name down
+    public static CafeClient connect(String host, int port, String customerName, Consumer<String> pushListener) throws IOException {
+        return open(host, port, customerName, pushListener);
+    }
+
+    //connects and picks the session back up - throws if it has expired, the caller can connect() afresh then
+    public static CafeClient resume(String host, int port, String customerName, String sessionToken, Consumer<String> pushListener) throws IOException {
+        return open(host, port, customerName + " resume=" + sessionToken, pushListener);
+    }
+
+    //'CAFE/1 OK session <token>' back, or a plain 'CAFE/1 OK' from a server without sessions
+    private static CafeClient open(String host, int port, String hello, Consumer<String> pushListener) throws IOException {
+        Socket socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        CafeClient client = new CafeClient(socket, pushListener);
+        client.writeLine(ClientHandler.PROTOCOL + " " + hello, true);
+        String reply = client.reader.readLine();
+        String ok = ClientHandler.PROTOCOL + " OK";
+        if (reply == null || !(reply.equals(ok) || reply.startsWith(ok + " session "))) {
+            socket.close();
+            throw new IOException("Server rejected connection: " + reply);
+        }
+        client.sessionToken = reply.equals(ok) ? null : reply.substring(ok.length() + 9).trim();
+        client.readerThread.start();
+        return client;
+    }
+
+    public String getSessionToken() {
+        return sessionToken;
+    }
+
+    //false once the server has closed the connection or it dropped
+    public boolean isConnected() {
+        return connected && !closed;
+    }
+
+    public CompletableFuture<Response> send(String command) {
+        return send(command, true);
+    }
+
+    //flush = false leaves the request in the send buffer, so a burst of sends goes out in one write - call flush() after
+    public CompletableFuture<Response> send(String command, boolean flush) {
+        long id = nextId.getAndIncrement();
+        Pending request = new Pending(1);
+        pending.put(id, request);
+        writeOrFail(id, id + " " + command, flush);
+        return request.single;
+    }
+
+    //several commands in one frame, the future completes once every reply is in (in the same order as the commands)
+    public CompletableFuture<List<Response>> batch(List<String> commands) {
+        long id = nextId.getAndIncrement();
+        Pending request = new Pending(commands.size());
+        pending.put(id, request);
+        writeOrFail(id, id + " batch " + String.join(" ; ", commands), true);
+        return request.all;
+    }
+
+    public void flush() throws IOException {
+        synchronized (out) {
+            out.flush();
+        }
+    }
+
+    public int inFlight() {
+        return pending.size();
+    }
+
+    private void writeOrFail(long id, String line, boolean flush) {
+        try {
+            writeLine(line, flush);
+        } catch (IOException e) {
+            Pending request = pending.remove(id);
+            if (request != null) {
+                request.fail(e);
+            }
+        }
+    }
+
+    private void writeLine(String line, boolean flush) throws IOException {
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        synchronized (out) {
+            out.write(bytes);
+            if (flush) {
+                out.flush();
+            }
+        }
+    }
+
+    private void readReplies() {
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("* ")) {
+                    pushListener.accept(line.substring(2));
+                    continue;
+                }
+                handleReply(line);
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                System.out.println("Disconnected from server: " + e.getMessage());
+            }
+        } finally {
+            connected = false;
+            IOException gone = new IOException("connection closed");
+            pending.values().forEach(request -> request.fail(gone));
+            pending.clear();
+        }
+    }
+
+    //'<id> OK text', '<id> ERR text' or '<id>.<n> ...' for the n'th reply of a batch
+    private void handleReply(String line) {
+        int space = line.indexOf(' ');
+        if (space < 0) {
+            return;
+        }
+        int dot = line.indexOf('.');
+        long id;
+        int index = 0;
+        try {
+            if (dot > 0 && dot < space) {
+                id = Long.parseLong(line.substring(0, dot));
+                index = Integer.parseInt(line.substring(dot + 1, space)) - 1;
+            } else {
+                id = Long.parseLong(line.substring(0, space));
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Server: " + line); //not a reply to anything we sent
+            return;
+        }
+        String rest = line.substring(space + 1);
+        boolean ok = rest.startsWith("OK");
+        String text = rest.startsWith("OK ") ? rest.substring(3) : rest.startsWith("ERR ") ? rest.substring(4) : rest;
+        Pending request = pending.get(id);
+        if (request != null && request.complete(index, new Response(ok, text))) {
+            pending.remove(id);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        socket.close();
+    }
+
+    public static final class Response {
+        private final boolean ok;
+        private final String text;
+
+        Response(boolean ok, String text) {
+            this.ok = ok;
+            this.text = text;
+        }
+
+        public boolean isOk() {
+            return ok;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    //one request waiting for its reply (or replies, for a batch) - only touched by the reader thread once sent
+    private static final class Pending {
+        private final Response[] replies;
+        private int received = 0;
+        private final CompletableFuture<Response> single = new CompletableFuture<>();
+        private final CompletableFuture<List<Response>> all = new CompletableFuture<>();
+
+        Pending(int expected) {
+            this.replies = new Response[expected];
+        }
+
+        //true once every reply is in
+        boolean complete(int index, Response response) {
+            if (index < 0 || index >= replies.length) {
+                return false;
+            }
+            replies[index] = response;
+            received++;
+            if (replies.length == 1) {
+                single.complete(response);
+            }
+            if (received == replies.length) {
+                all.complete(Arrays.asList(replies));
+                return true;
+            }
+            return false;
+        }
+
+        void fail(IOException e) {
+            single.completeExceptionally(e);
+            all.completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package helpers;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+//counters and histograms for the cafe - the hot paths only bump LongAdders or a LatencyHistogram, nothing becomes text until someone reads them
+//read them through JMX (jconsole -> Cafe:type=Barista) or as 'name value' lines from MetricsServer, e.g. curl localhost:9100/metrics
+//gauges that are cheaper to work out when asked (tray depth, busy machines) come from collectors that run on each read
+public class CafeMetrics implements DynamicMBean {
+    //command types for latency, anything else is 'invalid'
+    private static final String[] COMMANDS = {"order", "status", "collect", "exit", "invalid"};
+
+    private final Menu menu;
+    private final long startedNanos = System.nanoTime();
+
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+    private final LongAdder ordersPlaced = new LongAdder();
+    private final LongAdder ordersReady = new LongAdder();
+    private final LongAdder ordersCollected = new LongAdder();
+    private final LongAdder cupsCancelled = new LongAdder();
+    private final LongAdder casRetries = new LongAdder(); //customer counters that had to be swapped again because something else changed them first
+
+    private final LongAdder[] waitingCups; //per menu item, accepted but no machine free yet
+    private final LongAdder[] brewingCups; //per menu item, on a machine right now
+
+    private final LatencyHistogram waitingMillis = new LatencyHistogram(); //per cup, until a machine picked it up
+    private final LatencyHistogram brewingMillis = new LatencyHistogram(); //per cup, on the machine
+    private final LatencyHistogram trayMillis = new LatencyHistogram(); //per order, ready until collected
+    private final LatencyHistogram[] commandMicros = new LatencyHistogram[COMMANDS.length];
+
+    private final List<Consumer<Map<String, Number>>> collectors = new CopyOnWriteArrayList<>();
+
+    public CafeMetrics(Menu menu) {
+        this.menu = menu;
+        this.waitingCups = new LongAdder[menu.size()];
+        this.brewingCups = new LongAdder[menu.size()];
+        for (int item = 0; item < menu.size(); item++) {
+            waitingCups[item] = new LongAdder();
+            brewingCups[item] = new LongAdder();
+        }
+        for (int i = 0; i < COMMANDS.length; i++) {
+            commandMicros[i] = new LatencyHistogram();
+        }
+    }
+
+    public void connectionOpened() {
+        connectionsOpened.increment();
+    }
+
+    public void connectionClosed() {
+        connectionsClosed.increment();
+    }
+
+    public void orderPlaced() {
+        ordersPlaced.increment();
+    }
+
+    public void orderReady() {
+        ordersReady.increment();
+    }
+
+    public void orderCollected(long trayMillis) {
+        ordersCollected.increment();
+        if (trayMillis >= 0) {
+            this.trayMillis.record(trayMillis);
+        }
+    }
+
+    public LongAdder casRetries() {
+        return casRetries;
+    }
+
+    //a cup was handed to its machines, it waits until one is free
+    public void cupQueued(Menu.Item item) {
+        waitingCups[item.getIndex()].increment();
+    }
+
+    public void cupStarted(Menu.Item item, long waitedMillis) {
+        waitingCups[item.getIndex()].decrement();
+        brewingCups[item.getIndex()].increment();
+        waitingMillis.record(waitedMillis);
+    }
+
+    public void cupBrewed(Menu.Item item, long brewedMillis) {
+        brewingCups[item.getIndex()].decrement();
+        brewingMillis.record(brewedMillis);
+    }
+
+    //the customer left before the cup was done, it was still waiting or already on a machine
+    public void cupCancelled(Menu.Item item, boolean wasBrewing) {
+        (wasBrewing ? brewingCups : waitingCups)[item.getIndex()].decrement();
+        cupsCancelled.increment();
+    }
+
+    //the command line as sent by the customer, nanos it took to answer
+    public void commandDone(String line, long nanos) {
+        commandMicros[commandIndex(line)].record(nanos / 1000);
+    }
+
+    private static int commandIndex(String line) {
+        if (line.regionMatches(true, 0, "order status", 0, 12)) {
+            return 1;
+        }
+        for (int i = 0; i < 4; i++) {
+            String command = COMMANDS[i];
+            if (line.regionMatches(true, 0, command, 0, command.length()) && (line.length() == command.length() || line.charAt(command.length()) == ' ')) {
+                return i;
+            }
+        }
+        return 4;
+    }
+
+    //adds its own gauges to the map on every read
+    public void addCollector(Consumer<Map<String, Number>> collector) {
+        collectors.add(collector);
+    }
+
+    //everything at once, in a stable order - the same names are the JMX attributes and the lines of the text endpoint
+    public Map<String, Number> snapshot() {
+        Map<String, Number> values = new LinkedHashMap<>();
+        values.put("uptime.seconds", (System.nanoTime() - startedNanos) / 1_000_000_000L);
+        values.put("connections.opened", connectionsOpened.sum());
+        values.put("connections.closed", connectionsClosed.sum());
+        values.put("orders.placed", ordersPlaced.sum());
+        values.put("orders.ready", ordersReady.sum());
+        values.put("orders.collected", ordersCollected.sum());
+        values.put("orders.casRetries", casRetries.sum());
+        values.put("cups.cancelled", cupsCancelled.sum());
+        for (int item = 0; item < menu.size(); item++) {
+            String drink = menu.get(item).getName().toLowerCase();
+            values.put("cups.waiting." + drink, Math.max(0, waitingCups[item].sum()));
+            values.put("cups.brewing." + drink, Math.max(0, brewingCups[item].sum()));
+        }
+        putHistogram(values, "area.waiting.millis", waitingMillis);
+        putHistogram(values, "area.brewing.millis", brewingMillis);
+        putHistogram(values, "area.tray.millis", trayMillis);
+        for (int i = 0; i < COMMANDS.length; i++) {
+            putHistogram(values, "command." + COMMANDS[i] + ".micros", commandMicros[i]);
+        }
+        for (Consumer<Map<String, Number>> collector : collectors) {
+            collector.accept(values);
+        }
+        return values;
+    }
+
+    private static void putHistogram(Map<String, Number> values, String name, LatencyHistogram histogram) {
+        values.put(name + ".count", histogram.getCount());
+        values.put(name + ".mean", Math.round(histogram.getMean()));
+        values.put(name + ".p50", histogram.valueAt(50));
+        values.put(name + ".p99", histogram.valueAt(99));
+        values.put(name + ".p999", histogram.valueAt(99.9));
+        values.put(name + ".max", histogram.getMax());
+    }
+
+    //one 'name value' per line
+    public String toText() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Number> entry : snapshot().entrySet()) {
+            out.append("cafe.").append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        return out.toString();
+    }
+
+    public long uptimeMillis() {
+        return (System.nanoTime() - startedNanos) / 1_000_000;
+    }
+
+    //shows up in jconsole / visualvm under Cafe:type=Barista
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("Cafe:type=Barista"));
+        } catch (JMException e) {
+            System.out.println("Could not register the metrics MBean: " + e.getMessage());
+            JsonLogger.log("ERROR", "Could not register the metrics MBean: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Number value = snapshot().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException("No metric called " + attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Number> values = snapshot();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            Number value = values.get(attribute);
+            if (value != null) {
+                list.add(new Attribute(attribute, value));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList(); //read only, nothing set
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName), "The cafe metrics have no operations");
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        Map<String, Number> values = snapshot();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+        int i = 0;
+        for (Map.Entry<String, Number> entry : values.entrySet()) {
+            attributes[i++] = new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(), entry.getKey(), true, false, false);
+        }
+        return new MBeanInfo(getClass().getName(), "Virtual cafe metrics", attributes, null, null, null);
+    }
+}
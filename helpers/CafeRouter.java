@@ -0,0 +1,158 @@
+package helpers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+//front door when the cafe runs as several Barista nodes - customers connect here and get passed through to the node that owns them
+//the owner comes from the customers name on a ConsistentHashRing, so the same customer always lands on the same node and their
+//status / collect find the orders where they were placed. after the first line the bytes are just copied both ways
+//run: java -Dcafe.nodes=localhost:12346,localhost:12347 -cp target/cafe.jar Cafe3Test.Barista router
+public class CafeRouter {
+    private static final int MAX_HELLO = 8192;
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+
+    private final int port;
+    private final ConsistentHashRing ring;
+    private final ExecutorService pipes = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "router-pipe");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public CafeRouter(int port, List<String> nodes) {
+        this.port = port;
+        this.ring = new ConsistentHashRing(nodes, 100);
+    }
+
+    //-Dcafe.nodes=host:port,host:port - the client ports of the nodes
+    public static List<String> nodesFromSystemProperties() {
+        List<String> nodes = new ArrayList<>();
+        for (String node : System.getProperty("cafe.nodes", "").split(",")) {
+            if (!node.isBlank()) {
+                nodes.add(node.trim());
+            }
+        }
+        return nodes;
+    }
+
+    public void serve() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(port, 1024)) {
+            while (true) {
+                Socket client = serverSocket.accept();
+                pipes.execute(() -> route(client));
+            }
+        }
+    }
+
+    private void route(Socket client) {
+        try {
+            client.setTcpNoDelay(true);
+            InputStream in = client.getInputStream();
+            byte[] hello = readHello(in);
+            if (hello == null) {
+                client.close();
+                return;
+            }
+            String customerName = customerName(new String(hello, StandardCharsets.UTF_8).trim());
+            Socket node = connect(customerName);
+            if (node == null) {
+                System.out.println("No node available for " + customerName);
+                JsonLogger.log("ERROR", "Router found no node for " + customerName);
+                client.close();
+                return;
+            }
+            OutputStream toNode = node.getOutputStream();
+            toNode.write(hello);
+            toNode.flush();
+            pipes.execute(() -> copy(in, node, client));
+            copy(node.getInputStream(), client, node);
+        } catch (IOException e) {
+            System.out.println("Router connection failed: " + e.getMessage());
+            closeQuietly(client);
+        }
+    }
+
+    //the owner, or the next node round the ring if it is down - the customer then starts with nothing on the other node
+    private Socket connect(String customerName) {
+        List<String> nodes = ring.preferenceList(customerName);
+        for (int i = 0; i < nodes.size(); i++) {
+            String node = nodes.get(i);
+            int colon = node.lastIndexOf(':');
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(node.substring(0, colon), Integer.parseInt(node.substring(colon + 1))), CONNECT_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                if (i > 0) {
+                    JsonLogger.log("ERROR", "Node " + nodes.get(0) + " is down, sent " + customerName + " to " + node);
+                }
+                return socket;
+            } catch (IOException e) {
+                closeQuietly(socket);
+            }
+        }
+        return null;
+    }
+
+    //read byte by byte so nothing after the first line is swallowed by a buffer - it belongs to the node
+    private static byte[] readHello(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != -1) {
+            line.write(b);
+            if (b == '\n') {
+                return line.toByteArray();
+            }
+            if (line.size() > MAX_HELLO) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    //'CAFE/1 Bob', 'CAFE/1 Bob resume=<token>' or just 'Bob' for a legacy client - a resume goes to the same node as the hello did
+    private static String customerName(String hello) {
+        if (hello.startsWith("CAFE/")) {
+            int space = hello.indexOf(' ');
+            String name = space < 0 ? "" : hello.substring(space + 1).trim();
+            int resume = name.lastIndexOf(" resume=");
+            return resume < 0 ? name : name.substring(0, resume).trim();
+        }
+        return hello;
+    }
+
+    //copies until one side closes, then closes both so the other direction ends too
+    private static void copy(InputStream from, Socket to, Socket fromSocket) {
+        byte[] buffer = new byte[8192];
+        try {
+            OutputStream out = to.getOutputStream();
+            int read;
+            while ((read = from.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                out.flush();
+            }
+        } catch (IOException e) {
+            //one side went away, close both below
+        } finally {
+            closeQuietly(to);
+            closeQuietly(fromSocket);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            //already closed
+        }
+    }
+}
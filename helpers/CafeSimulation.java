@@ -0,0 +1,301 @@
+package helpers;
+
+import Cafe3Test.Barista;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+//capacity planning without real sockets or real 30s brews - a whole day (or year) of customers played through the real Barista on a
+//VirtualBrewClock, so placeOrder, the machines, batching, the brew policy, collectOrder and leaving all run exactly as they do in the
+//cafe, just with time jumping from one event to the next. same seed, same customers, same numbers every run
+//every machine configuration is run against every policy with the same stream of orders:
+//  machines=2,3,4        - machines of every type, or per type with tea=1,2 coffee=2,3 (every combination is run)
+//  policies=fair,shortest
+//  rate=400              - orders per hour on average
+//  arrivals=poisson      - or bursty: for burstMinutes of every periodMinutes orders come burst times faster than the rest of the
+//                          period, with the same average rate, so the rush hour queue shows up in the tail
+//  collect=60            - seconds between READY and the customer collecting and leaving
+//  batch=4 batchWait=0 brew=30 (seconds), orders=1000000 seed=1, report=capacity.csv appends one row per run
+//the order sizes are mostly 1-2 cups, some 3-6 and a few 10-20 cup office runs, split at random between tea and coffee
+//run: java -cp target/cafe.jar Cafe3Test.Barista sim orders=1000000 machines=2,3 policies=fair,shortest arrivals=bursty
+public class CafeSimulation {
+    private final int orders;
+    private final long seed;
+    private final double ordersPerHour;
+    private final boolean bursty;
+    private final double burst;
+    private final long burstMillis;
+    private final long periodMillis;
+    private final long collectMillis;
+    private final int batchSize;
+    private final long batchWaitMillis;
+    private final long brewMillis;
+    private final List<Map<String, Integer>> configurations = new ArrayList<>();
+    private final List<BrewPolicy> policies = new ArrayList<>();
+    private final String report;
+
+    public CafeSimulation(Map<String, String> options) {
+        this.orders = Integer.parseInt(options.getOrDefault("orders", "1000000"));
+        this.seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        this.ordersPerHour = Double.parseDouble(options.getOrDefault("rate", "400"));
+        String arrivals = options.getOrDefault("arrivals", "poisson");
+        if (!arrivals.equals("poisson") && !arrivals.equals("bursty")) {
+            throw new IllegalArgumentException("Unknown arrivals " + arrivals + " - use poisson or bursty");
+        }
+        this.bursty = arrivals.equals("bursty");
+        this.burst = Double.parseDouble(options.getOrDefault("burst", "4"));
+        this.burstMillis = (long) (Double.parseDouble(options.getOrDefault("burstMinutes", "15")) * 60_000);
+        this.periodMillis = (long) (Double.parseDouble(options.getOrDefault("periodMinutes", "60")) * 60_000);
+        this.collectMillis = (long) (Double.parseDouble(options.getOrDefault("collect", "60")) * 1000);
+        this.batchSize = Integer.parseInt(options.getOrDefault("batch", "4"));
+        this.batchWaitMillis = Long.parseLong(options.getOrDefault("batchWait", "0"));
+        this.brewMillis = (long) (Double.parseDouble(options.getOrDefault("brew", "30")) * 1000);
+        this.report = options.get("report");
+        if (orders < 1 || ordersPerHour <= 0 || burst < 1 || burstMillis < 0 || periodMillis <= burstMillis || collectMillis < 0) {
+            throw new IllegalArgumentException("Simulation needs orders >= 1, rate > 0, burst >= 1 and a burst shorter than its period");
+        }
+        for (String policy : options.getOrDefault("policies", "fair").split(",")) {
+            policies.add(BrewPolicy.of(BrewPolicy.Order.valueOf(policy.trim().toUpperCase())));
+        }
+        //every combination of the per type counts, machine types without their own list use 'machines'
+        configurations.add(new LinkedHashMap<>());
+        for (String machineType : Menu.standard(brewMillis).machines()) {
+            List<Map<String, Integer>> more = new ArrayList<>();
+            for (String count : options.getOrDefault(machineType, options.getOrDefault("machines", "2,3")).split(",")) {
+                for (Map<String, Integer> configuration : configurations) {
+                    Map<String, Integer> next = new LinkedHashMap<>(configuration);
+                    next.put(machineType, Integer.parseInt(count.trim()));
+                    more.add(next);
+                }
+            }
+            configurations.clear();
+            configurations.addAll(more);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals > 0) {
+                options.put(arg.substring(0, equals), arg.substring(equals + 1));
+            }
+        }
+        //the barista logs and prints every event - a million orders would spend most of their time doing that. the properties
+        //have to be set before the logger is first used, results still go to the real stdout
+        System.setProperty("cafe.quiet", "true");
+        System.setProperty("cafe.eta", "false"); //nobody is listening for estimates, and projecting the queue on every batch isnt free
+        PrintStream out = System.out;
+        System.setOut(new Silent());
+        try {
+            new CafeSimulation(options).run(out);
+        } finally {
+            System.setOut(out);
+            JsonLogger.shutdown();
+        }
+    }
+
+    public void run(PrintStream out) throws IOException {
+        out.printf("%,d orders, %.0f orders/hour %s, batches of %d, %ds brews, collected %ds after ready%n", orders, ordersPerHour,
+                bursty ? "bursty (x" + burst + " for " + burstMillis / 60_000 + " of every " + periodMillis / 60_000 + " minutes)" : "poisson",
+                batchSize, brewMillis / 1000, collectMillis / 1000);
+        out.printf("%-16s %-10s %8s %10s %9s %-22s %8s %8s %8s %8s %8s %10s%n", "machines", "policy", "sim h", "orders/h", "cups/s",
+                "utilisation", "mean s", "p50 s", "p90 s", "p99 s", "max s", "sim ord/s");
+        for (Map<String, Integer> configuration : configurations) {
+            for (BrewPolicy policy : policies) {
+                Result result = simulate(configuration, policy);
+                result.print(out);
+                if (report != null) {
+                    result.appendCsv(report);
+                }
+            }
+        }
+    }
+
+    //one configuration and policy: a fresh cafe on its own virtual clock, the same orders every time
+    public Result simulate(Map<String, Integer> machineCounts, BrewPolicy policy) {
+        VirtualBrewClock clock = new VirtualBrewClock();
+        Barista barista = new Barista(Menu.standard(brewMillis), machineCounts, clock, batchSize, batchWaitMillis, policy, AdmissionControl.unlimited());
+        Result result = new Result(machineCounts, policy);
+        Random random = new Random(seed);
+        long[] lastReady = new long[1];
+        long started = System.nanoTime();
+
+        double arrival = 0;
+        for (int i = 0; i < orders; i++) {
+            arrival = nextArrival(arrival, random);
+            int cups = orderSize(random);
+            int tea = random.nextInt(cups + 1);
+            String customerName = nameFor(i);
+
+            clock.advanceTo((long) arrival);
+            long placedAt = clock.now();
+            barista.addClient(customerName, name -> {
+                long now = clock.now();
+                result.orderToReady.record(now - placedAt);
+                lastReady[0] = now;
+                clock.schedule(collectMillis, () -> {
+                    barista.collectOrder(name);
+                    barista.removeClient(name);
+                });
+            });
+            try {
+                barista.placeOrder(customerName, tea == 0 ? cups + " coffee" : tea == cups ? cups + " tea" : tea + " tea and " + (cups - tea) + " coffee");
+                result.cups += cups;
+            } catch (OrderParseException | OrderRejectedException e) {
+                result.failed++; //cant happen with unlimited admission, but a menu change shouldnt stop the run
+                barista.removeClient(customerName);
+            }
+        }
+        clock.runUntilIdle();
+
+        result.wallMillis = (System.nanoTime() - started) / 1_000_000;
+        result.simulatedMillis = Math.max(1, lastReady[0]);
+        Map<String, Number> values = barista.getMetrics().snapshot();
+        for (String machineType : machineCounts.keySet()) {
+            Number busy = values.get("machines." + machineType + ".busyMillis");
+            result.utilisation.put(machineType, busy.doubleValue() / ((double) result.simulatedMillis * machineCounts.get(machineType)));
+        }
+        return result;
+    }
+
+    //the next arrival after 'after' - a poisson process, or for bursty one whose rate steps up for the first burstMillis of every
+    //period, drawn by thinning: candidates come at the burst rate and are kept with the chance of the rate at their time
+    private double nextArrival(double after, Random random) {
+        double perMilli = ordersPerHour / 3_600_000;
+        if (!bursty) {
+            return after - Math.log(1 - random.nextDouble()) / perMilli;
+        }
+        //the quiet rate that keeps the average over a period at ordersPerHour
+        double quiet = perMilli * periodMillis / (burst * burstMillis + (periodMillis - burstMillis));
+        double peak = quiet * burst;
+        double time = after;
+        while (true) {
+            time -= Math.log(1 - random.nextDouble()) / peak;
+            if ((long) time % periodMillis < burstMillis || random.nextDouble() < 1 / burst) {
+                return time;
+            }
+        }
+    }
+
+    //70% 1-2 cups, 25% 3-6, 5% 10-20
+    private static int orderSize(Random random) {
+        double pick = random.nextDouble();
+        if (pick < 0.70) {
+            return 1 + random.nextInt(2);
+        }
+        if (pick < 0.95) {
+            return 3 + random.nextInt(4);
+        }
+        return 10 + random.nextInt(11);
+    }
+
+    //customer names can only have letters: 0 -> Sima, 27 -> Simbb
+    private static String nameFor(int index) {
+        StringBuilder name = new StringBuilder("Sim");
+        do {
+            name.append((char) ('a' + index % 26));
+            index /= 26;
+        } while (index > 0);
+        return name.toString();
+    }
+
+    //what one run of the cafe came to - latencies are order -> READY in simulated milliseconds
+    public final class Result {
+        private final Map<String, Integer> machineCounts;
+        private final BrewPolicy policy;
+        private final LatencyHistogram orderToReady = new LatencyHistogram();
+        private final Map<String, Double> utilisation = new LinkedHashMap<>();
+        private long cups;
+        private long failed;
+        private long simulatedMillis;
+        private long wallMillis;
+
+        private Result(Map<String, Integer> machineCounts, BrewPolicy policy) {
+            this.machineCounts = machineCounts;
+            this.policy = policy;
+        }
+
+        public LatencyHistogram getOrderToReady() {
+            return orderToReady;
+        }
+
+        public Map<String, Double> getUtilisation() {
+            return utilisation;
+        }
+
+        public double getOrdersPerHour() {
+            return orderToReady.getCount() * 3_600_000.0 / simulatedMillis;
+        }
+
+        private String machines() {
+            StringBuilder text = new StringBuilder();
+            for (Map.Entry<String, Integer> count : machineCounts.entrySet()) {
+                text.append(text.length() == 0 ? "" : " ").append(count.getKey()).append('=').append(count.getValue());
+            }
+            return text.toString();
+        }
+
+        private String utilisationText() {
+            StringBuilder text = new StringBuilder();
+            for (Map.Entry<String, Double> busy : utilisation.entrySet()) {
+                text.append(text.length() == 0 ? "" : " ").append(busy.getKey()).append(String.format(" %.0f%%", busy.getValue() * 100));
+            }
+            return text.toString();
+        }
+
+        private void print(PrintStream out) {
+            out.printf("%-16s %-10s %8.1f %10.0f %9.3f %-22s %8.1f %8.1f %8.1f %8.1f %8.1f %10.0f%n", machines(), policy.getOrder().name().toLowerCase(),
+                    simulatedMillis / 3_600_000.0, getOrdersPerHour(), cups * 1000.0 / simulatedMillis, utilisationText(),
+                    orderToReady.getMean() / 1000, orderToReady.valueAt(50) / 1000.0, orderToReady.valueAt(90) / 1000.0,
+                    orderToReady.valueAt(99) / 1000.0, orderToReady.getMax() / 1000.0, orders * 1000.0 / Math.max(1, wallMillis));
+            if (failed > 0) {
+                out.printf("  %,d orders were turned down%n", failed);
+            }
+        }
+
+        //one csv row per run so configurations can be charted against each other, latencies in milliseconds
+        private void appendCsv(String file) throws IOException {
+            boolean isNew = !new java.io.File(file).exists();
+            try (PrintWriter csv = new PrintWriter(new FileWriter(file, true))) {
+                if (isNew) {
+                    csv.println("machines,policy,arrivals,rate,orders,orders_per_hour,cups_per_sec,utilisation,mean_ms,p50_ms,p90_ms,p99_ms,max_ms");
+                }
+                csv.printf("%s,%s,%s,%.0f,%d,%.1f,%.3f,%s,%.0f,%d,%d,%d,%d%n", machines(), policy.getOrder().name().toLowerCase(),
+                        bursty ? "bursty" : "poisson", ordersPerHour, orderToReady.getCount(), getOrdersPerHour(), cups * 1000.0 / simulatedMillis,
+                        utilisationText(), orderToReady.getMean(), orderToReady.valueAt(50), orderToReady.valueAt(90), orderToReady.valueAt(99), orderToReady.getMax());
+            }
+        }
+    }
+
+    //stdout while the simulation runs - drops the barista's event lines before they are encoded, a muted stream still does that work
+    private static final class Silent extends PrintStream {
+        Silent() {
+            super(OutputStream.nullOutputStream());
+        }
+
+        @Override
+        public void println(String line) {
+        }
+
+        @Override
+        public void println(Object line) {
+        }
+
+        @Override
+        public void print(String text) {
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package helpers;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
+
+//every customer in the cafe at one moment (CustomerTable.snapshot) - nothing in here changes once it is taken, so the totals, the
+//top customers and the export all run over it on their own time without holding up orders, brewing or collecting
+//the sums are split over the common fork join pool once there are enough customers to be worth it
+public class CafeSnapshot {
+    //below this many customers splitting the work costs more than it saves
+    private static final int PARALLEL_THRESHOLD = Integer.getInteger("cafe.snapshot.parallelThreshold", 10_000);
+
+    private static final Comparator<Entry> BY_OUTSTANDING = Comparator.comparingInt(Entry::outstanding)
+            .thenComparing(Entry::getCustomerName, Comparator.reverseOrder()); //ties go to the name that sorts first
+
+    public enum Area {
+        WAITING,
+        BREWING,
+        TRAY
+    }
+
+    private final Menu menu;
+    private final long takenAt;
+    private final List<Entry> entries;
+
+    CafeSnapshot(Menu menu, long takenAt, List<Entry> entries) {
+        this.menu = menu;
+        this.takenAt = takenAt;
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    //brew clock time it was taken
+    public long getTakenAt() {
+        return takenAt;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public List<Entry> entries() {
+        return entries;
+    }
+
+    private Stream<Entry> stream() {
+        return entries.size() >= PARALLEL_THRESHOLD ? entries.parallelStream() : entries.stream();
+    }
+
+    //cups of each drink in each area across the whole cafe
+    public Totals totals() {
+        int items = menu.size();
+        long[] sums = stream().collect(() -> new long[items * 3], (sum, entry) -> {
+            CustomerOrder.Snapshot counts = entry.counts;
+            for (int item = 0; item < items; item++) {
+                sum[item] += counts.waiting(item);
+                sum[items + item] += counts.brewing(item);
+                sum[items * 2 + item] += counts.tray(item);
+            }
+        }, (sum, other) -> {
+            for (int i = 0; i < sum.length; i++) {
+                sum[i] += other[i];
+            }
+        });
+        return new Totals(sums);
+    }
+
+    //the customer who has been waiting longest for cups still queued or brewing (Snapshot.getWaitingSince), null if nobody is
+    public Entry oldestWaiting() {
+        return stream().filter(entry -> entry.counts.getWaitingSince() >= 0)
+                .min(Comparator.comparingLong((Entry entry) -> entry.counts.getWaitingSince()).thenComparing(Entry::getCustomerName))
+                .orElse(null);
+    }
+
+    //the n customers with the most cups waiting or brewing, most first - each part of the split keeps its own n, so nothing is sorted whole
+    public List<Entry> topOutstanding(int n) {
+        if (n < 1) {
+            return List.of();
+        }
+        Collector<Entry, PriorityQueue<Entry>, List<Entry>> topN = Collector.of(
+                () -> new PriorityQueue<>(n + 1, BY_OUTSTANDING),
+                (top, entry) -> keep(top, entry, n),
+                (top, other) -> {
+                    for (Entry entry : other) {
+                        keep(top, entry, n);
+                    }
+                    return top;
+                },
+                top -> {
+                    List<Entry> most = new ArrayList<>(top);
+                    most.sort(BY_OUTSTANDING.reversed());
+                    return most;
+                });
+        return stream().filter(entry -> entry.outstanding() > 0).collect(topN);
+    }
+
+    private static void keep(PriorityQueue<Entry> top, Entry entry, int n) {
+        if (top.size() < n) {
+            top.add(entry);
+        } else if (BY_OUTSTANDING.compare(entry, top.peek()) > 0) {
+            top.poll();
+            top.add(entry);
+        }
+    }
+
+    //the whole snapshot as json, written customer by customer so a few hundred thousand of them never sit in memory as one string:
+    //{"takenAt":..,"drinks":["Tea","Coffee"],"customers":N,"totals":{"waiting":{"Tea":3,..},..},"oldestWaiting":{..},"top":[..],
+    //"orders":[{"name":"Bob","id":7,"waitingSince":..,"waiting":[1,0],"brewing":[0,2],"tray":[0,0]},..]}
+    //each customer's counts are in the order of "drinks", so the names arent repeated a few hundred thousand times
+    public void writeJson(Writer out, int top) throws IOException {
+        JsonWriter json = new JsonWriter(out);
+        json.beginObject();
+        json.name("takenAt").value(takenAt);
+        json.name("drinks").beginArray();
+        for (Menu.Item item : menu.items()) {
+            json.value(item.getName());
+        }
+        json.endArray();
+        json.name("customers").value(entries.size());
+        json.name("totals");
+        totals().write(json);
+        Entry oldest = oldestWaiting();
+        json.name("oldestWaiting");
+        if (oldest == null) {
+            json.nullValue();
+        } else {
+            writeEntry(json, oldest);
+        }
+        json.name("top").beginArray();
+        for (Entry entry : topOutstanding(top)) {
+            writeEntry(json, entry);
+        }
+        json.endArray();
+        json.name("orders").beginArray();
+        for (Entry entry : entries) {
+            writeEntry(json, entry);
+        }
+        json.endArray();
+        json.endObject();
+        json.flush();
+    }
+
+    private void writeEntry(JsonWriter json, Entry entry) throws IOException {
+        CustomerOrder.Snapshot counts = entry.counts;
+        json.beginObject();
+        json.name("name").value(entry.getCustomerName());
+        json.name("id").value(entry.order.getId());
+        json.name("waitingSince").value(counts.getWaitingSince());
+        json.name("waiting").beginArray();
+        for (int item = 0; item < menu.size(); item++) {
+            json.value(counts.waiting(item));
+        }
+        json.endArray();
+        json.name("brewing").beginArray();
+        for (int item = 0; item < menu.size(); item++) {
+            json.value(counts.brewing(item));
+        }
+        json.endArray();
+        json.name("tray").beginArray();
+        for (int item = 0; item < menu.size(); item++) {
+            json.value(counts.tray(item));
+        }
+        json.endArray();
+        json.endObject();
+    }
+
+    //one customer in the snapshot - their counters as they were when it was taken
+    public static final class Entry {
+        private final CustomerOrder order;
+        private final CustomerOrder.Snapshot counts;
+        private final int outstanding;
+
+        Entry(CustomerOrder order, CustomerOrder.Snapshot counts) {
+            this.order = order;
+            this.counts = counts;
+            this.outstanding = counts.outstanding();
+        }
+
+        public String getCustomerName() {
+            return order.getCustomerName();
+        }
+
+        //the customer now, not as they were - getCounts is what the snapshot saw
+        public CustomerOrder getOrder() {
+            return order;
+        }
+
+        public CustomerOrder.Snapshot getCounts() {
+            return counts;
+        }
+
+        //cups waiting or brewing
+        public int outstanding() {
+            return outstanding;
+        }
+    }
+
+    //cups per area and drink
+    public final class Totals {
+        private final long[] sums; //waiting, brewing, tray one after the other like CustomerOrder.Snapshot
+
+        private Totals(long[] sums) {
+            this.sums = sums;
+        }
+
+        public long get(Area area, int item) {
+            return sums[area.ordinal() * menu.size() + item];
+        }
+
+        public long get(Area area) {
+            long total = 0;
+            for (int item = 0; item < menu.size(); item++) {
+                total += get(area, item);
+            }
+            return total;
+        }
+
+        private void write(JsonWriter json) throws IOException {
+            json.beginObject();
+            for (Area area : Area.values()) {
+                json.name(area.name().toLowerCase()).beginObject();
+                for (int item = 0; item < menu.size(); item++) {
+                    json.name(menu.get(item).getName()).value(get(area, item));
+                }
+                json.endObject();
+            }
+            json.endObject();
+        }
+    }
+}
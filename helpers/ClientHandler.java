@@ -1,128 +1,461 @@
-package helpers;
-
-import Cafe3Test.Barista;
-import java.io.PrintWriter;
-import java.net.Socket;
-import java.util.Scanner;
-
-public class ClientHandler implements Runnable {
-    private final Socket socket;
-    private final Barista barista;
-
-    public ClientHandler(Socket socket, Barista barista) {
-        this.socket = socket;
-        this.barista = barista;
-    }
-
-    @Override
-    public void run() {
-        try (
-                Scanner scanner = new Scanner(socket.getInputStream());
-                PrintWriter writer = new PrintWriter(socket.getOutputStream(), true)
-        ) {
-            //read the customers name sent by the client
-            String customerName = scanner.nextLine().trim();
-            System.out.println("New connection from: " + customerName);
-            JsonLogger.log("INFO"," New Connection:  " + customerName);
-
-            if (customerName.length() < 2 || customerName.length() > 20 || !customerName.matches("^[a-zA-Z\\s]+$")) {
-                writer.println("bad customer name");
-                JsonLogger.log("ERROR"," Bad Customer Name: " + customerName);
-                return;
-            }
-            barista.addClient(customerName);  //new client connection
-
-            writer.println("success");
-
-            while (true) {
-                try {
-                    String line = scanner.nextLine().trim();
-                    if (line.isEmpty()) continue; // skip empty commands
-
-                    System.out.println("Received command from client: " + line);
-                    JsonLogger.log("INFO" , " Received Command " + line);
-
-                    //parts[0] will be the command e.g. 'order', parts[1] will be the order details - if present
-                    String[] parts = line.split(" ", 2);
-
-                    String command = parts[0].toLowerCase();
-                    //notifying if order is ready is consistently running in the background
-                    notifyOrderReady(writer, customerName);
-                    switch (command) {
-                        case "order":
-                            if (parts.length > 1 && parts[1].equalsIgnoreCase("status")) {
-                                String status = barista.getOrderStatus(customerName);
-                                writer.println("Order status: " + status);
-                            } else if (parts.length > 1) {
-                                String orderDetails = parts[1];
-                                boolean success = barista.placeOrder(customerName, orderDetails);
-
-                                if (success) {
-                                    writer.println("your order has been placed.");
-                                    JsonLogger.log("INFO", " Order has been successfully placed by: " +customerName);
-
-                                } else {
-                                    writer.println("Failed to place order. Please check your syntax and try again.");
-                                }
-                            } else {
-                                writer.println("Invalid order command. Please specify the order details or type 'order status'.");
-                            }
-                            break;
-
-                        case "collect":
-                            String collectResponse = barista.collectOrder(customerName);
-                            writer.println(collectResponse);
-                            break;
-
-                        case "exit":
-                            System.out.println(customerName + " disconnected.");
-                            JsonLogger.log("INFO", customerName + " Disconnected on EXIT command");
-                            barista.removeClient(customerName); //remove client from the barista system
-                            barista.logState();
-
-                            writer.println("goodbye :( ");
-
-                            return;
-
-                        default:
-                            writer.println("Invalid command. Please try again.");
-                            JsonLogger.log("ERROR", " Invalid command from: " +customerName);
-
-                            break;
-                    }
-                } catch (Exception e) {
-                    System.out.println("Error processing client request: " + e.getMessage());
-                    JsonLogger.log("ERROR", "Error processing client request" + e.getMessage());
-                    break;
-                }
-            }
-        } catch (Exception e) {
-            System.out.println("Error in client handler: " + e.getMessage());
-            JsonLogger.log("ERROR", "Error in the client handler");
-        }
-    }
-
-    //notify the customer their order is ready and send through writer to customer the message, if finished is true
-    //server to keep serving other requests while continuously checking if the order is ready - otherwise server would block until order is ready
-    private void notifyOrderReady(PrintWriter writer, String customerName) {
-        new Thread(() -> {
-            while (true) {
-                synchronized (barista.finished) {
-                    if (barista.finisheder) {
-                        writer.println("your order is ready for collection, " + customerName + "!");
-                        JsonLogger.log("INFO", " Order ready to be collected message for: " +customerName);
-
-                        writer.flush();
-                        break;
-                    }
-                }
-                try {
-                    Thread.sleep(600); //polls every 600 ms to see if the order is complete or not
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    break;
-                }
-            }
-        }).start();
-    }
-}
+package helpers;
+
+import Cafe3Test.Barista;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//talks to one customer. two protocols share the same commands:
+//  legacy - the first line is just the name, then one free text command per line and one free text reply per line (what Customer used to send)
+//  CAFE/1 - the first line is 'CAFE/1 <name>', then every request is '<id> <command>' and its reply is '<id> OK <text>' or '<id> ERR <text>'
+//           '<id> batch <command> ; <command> ; ...' runs several commands in one frame, replying '<id>.1 ...', '<id>.2 ...' in order
+//           anything the server sends on its own (order ready, a new ready estimate) starts with '* ' so it never gets mixed up with a reply
+//with ids a client can send lots of requests without waiting for each reply and still match them up
+//           the hello reply carries a session token - after a dropped connection 'CAFE/1 <name> resume=<token>' picks the customer back up,
+//           orders and all, and anything pushed while they were away is sent straight after the hello reply (see CustomerSessions)
+//a legacy customer who goes without saying exit (connection dropped, or nothing sent for -Dcafe.idleTimeoutMillis) leaves the cafe just the same,
+//their cups come off the machines so the next customer gets them. a CAFE/1 customer's session waits for them to come back first
+public class ClientHandler implements Runnable {
+    public static final String PROTOCOL = "CAFE/1";
+    public static final int IDLE_TIMEOUT_MILLIS = Integer.getInteger("cafe.idleTimeoutMillis", 600_000); //0 waits forever
+    private static final int MAX_LINE_LENGTH = 8192;
+    public static final byte[] CAFE_FULL = "the cafe is full, please come back later\n".getBytes(StandardCharsets.UTF_8); //sent instead of a handler when connections are shed
+    private static final byte[] STATUS_PREFIX = "Order status: ".getBytes(StandardCharsets.UTF_8);
+    //pushes a customer hasnt read yet (in nio mode, writes of any kind) - past this they arent reading at all, the connection is closed
+    //rather than queueing for ever
+    public static final int MAX_QUEUED_PUSHES = Integer.getInteger("cafe.maxQueuedPushes", 256);
+
+    private final Socket socket;
+    private final Barista barista;
+    private ReplyWriter writer;
+    private byte[] noOrderStatus; //status bytes for this customer before they have ordered anything
+    private String customerName; //null until the customer has sent their name
+    private boolean framed = false; //true once the customer said hello with CAFE/1
+    private CustomerSessions.Session session; //null until the hello has been answered
+    private final OrderListener pushes = new OrderListener() { //this connection's end of the session, what the barista pushes reaches it through
+        @Override
+        public void orderReady(String customerName) {
+            notifyOrderReady(customerName);
+        }
+
+        @Override
+        public void readyEstimateChanged(String customerName, long estimateMillis) {
+            notifyEstimate(estimateMillis);
+        }
+    };
+    private final AtomicBoolean finished = new AtomicBoolean(); //the connection has been handed back to the barista's admission count
+    //pushes come from the brew clock and the eta scheduler - they only queue the line, pushSender writes it to the socket so a slow
+    //customer holds up their own sender and never the machines. the nio server's writer only queues for the selector, so it sends inline
+    private final Executor pushSender;
+    private final Queue<String> pushQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedPushes = new AtomicInteger();
+    private final AtomicBoolean pushing = new AtomicBoolean();
+    //the newest journal record a reply to this customer promised, 0 = none yet. replies and pushes share the writer's buffer, so whoever
+    //flushes it (a push included) could be sending such a reply - every flush waits for this record. it only grows, and once it is
+    //durable the wait is just a check
+    private volatile long saveFirst = 0;
+
+    //pushSender runs the writes of pushes to this socket, off the threads that raise them (a virtual thread each, or a small pool)
+    public ClientHandler(Socket socket, Barista barista, Executor pushSender) {
+        this.socket = socket;
+        this.barista = barista;
+        this.pushSender = pushSender;
+    }
+
+    //used by the nio server, there is no socket stream to read from - the selector loop hands over each line
+    //its writer never blocks (NioServer bounds the queue behind it), so pushes go straight through on the thread that raised them
+    public ClientHandler(Barista barista, ReplyWriter writer) {
+        this.socket = null;
+        this.barista = barista;
+        this.writer = writer;
+        this.pushSender = Runnable::run;
+    }
+
+    @Override
+    public void run() {
+        try (socket) {
+            OutputStream out = socket.getOutputStream();
+            writer = new ReplyWriter((bytes, length) -> {
+                awaitSaved();
+                out.write(bytes, 0, length);
+                out.flush();
+            });
+            socket.setSoTimeout(IDLE_TIMEOUT_MILLIS);
+            LineReader reader = new LineReader(socket.getInputStream(), MAX_LINE_LENGTH);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                boolean keepGoing = handleLine(line);
+                //a pipelining client has more requests waiting - answer them all and send the replies together
+                if (!keepGoing || !reader.hasBuffered()) {
+                    writer.flush();
+                }
+                if (!keepGoing) {
+                    return;
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            System.out.println("Closing idle connection" + (customerName == null ? "" : " for " + customerName));
+            JsonLogger.log("INFO", "Closed a connection idle for " + IDLE_TIMEOUT_MILLIS + "ms " + customerName);
+        } catch (Exception e) {
+            System.out.println("Error in client handler: " + e.getMessage());
+            JsonLogger.log("ERROR", "Error in the client handler");
+        } finally {
+            connectionClosed();
+        }
+    }
+
+    //the connection is gone - if the customer never said exit their session is detached, a legacy customer leaves there and then
+    public void connectionClosed() {
+        if (finished.compareAndSet(false, true)) {
+            barista.connectionFinished();
+        }
+        CustomerSessions.Session current = session;
+        if (current != null && current.detach(pushes)) {
+            System.out.println(customerName + " disconnected without exit.");
+            JsonLogger.log("INFO", customerName + " Disconnected without EXIT command");
+        }
+    }
+
+    //the journal record a flush of this customer's writer has to wait for (an order placed, cups collected), 0 if none -
+    //read it inside the flush, a reply in the buffer is always covered by then. nothing may reach the customer before OrderJournal.isDurable says so
+    public long saveFirst() {
+        return saveFirst;
+    }
+
+    //the newest journal record so far covers whatever the command just handed in - set before its reply goes in the buffer
+    private void journaled() {
+        OrderJournal journal = barista.getJournal();
+        if (journal != null) {
+            saveFirst = journal.lastAppended();
+        }
+    }
+
+    //blocking mode's flush, on whichever thread is flushing - every connection thread waiting here shares the writer's next fsync
+    private void awaitSaved() {
+        OrderJournal journal = barista.getJournal();
+        long record = saveFirst;
+        if (journal != null && record > 0) {
+            journal.awaitDurable(record);
+        }
+    }
+
+    //handles one line from the customer, the first line is always their name. returns false once the connection should be closed
+    public boolean handleLine(String rawLine) {
+        if (customerName == null) {
+            return handleHello(rawLine.trim());
+        }
+        String line = rawLine.trim();
+        if (line.isEmpty()) return true; // skip empty commands
+
+        //status polls are most of the traffic - answered before anything is logged, split or cut out of the line, so a poll
+        //against an order that hasnt changed allocates nothing. the metrics still count them (commands.status)
+        int idLength = framed ? requestIdLength(line) : 0;
+        if (idLength >= 0 && isStatus(line, framed ? idLength + 1 : 0)) {
+            long started = System.nanoTime();
+            writer.reply(framed ? line : null, idLength, true, STATUS_PREFIX, statusBytes());
+            barista.getMetrics().commandDone("status", System.nanoTime() - started);
+            return true;
+        }
+
+        System.out.println("Received command from client: " + line);
+        JsonLogger.log("INFO" , " Received Command " + line);
+
+        if (!framed) {
+            Reply reply = execute(line);
+            respond(null, reply);
+            return !reply.close;
+        }
+        return handleFrame(line);
+    }
+
+    //'<id> <command>' or '<id> batch <command> ; <command> ...'
+    private boolean handleFrame(String line) {
+        int space = requestIdLength(line);
+        if (space < 0) {
+            writer.println("? ERR expected '<id> <command>'");
+            return true;
+        }
+        String id = line.substring(0, space);
+        String body = line.substring(space + 1).trim();
+
+        if (body.regionMatches(true, 0, "batch", 0, 5) && (body.length() == 5 || body.charAt(5) == ' ')) {
+            String[] commands = body.substring(5).split(";");
+            for (int i = 0; i < commands.length; i++) {
+                Reply reply = execute(commands[i].trim());
+                respond(id + "." + (i + 1), reply);
+                if (reply.close) {
+                    return false; //exit inside a batch - nothing after it runs
+                }
+            }
+            return true;
+        }
+        Reply reply = execute(body);
+        respond(id, reply);
+        return !reply.close;
+    }
+
+    //id is null for legacy customers, they get just the text
+    private void respond(String id, Reply reply) {
+        if (reply == Reply.STATUS) {
+            writer.reply(id, true, STATUS_PREFIX, statusBytes());
+        } else {
+            writer.reply(id, reply.ok, reply.text);
+        }
+    }
+
+    //the cached bytes for the customers current order go out as they are, no String in between
+    private byte[] statusBytes() {
+        byte[] status = barista.getOrderStatusBytes(customerName);
+        if (status == null) {
+            if (noOrderStatus == null) {
+                noOrderStatus = CustomerOrder.emptyStatus(customerName).getBytes(StandardCharsets.UTF_8);
+            }
+            status = noOrderStatus;
+        }
+        return status;
+    }
+
+    //'status' or 'order status' from start to the end of the line, any case
+    private static boolean isStatus(String line, int start) {
+        int length = line.length() - start;
+        return length == 6 && line.regionMatches(true, start, "status", 0, 6)
+                || length == 12 && line.regionMatches(true, start, "order status", 0, 12);
+    }
+
+    //how long the '<id>' in front of a framed request is, -1 if there isnt one
+    private static int requestIdLength(String line) {
+        int space = line.indexOf(' ');
+        return space > 0 && isRequestId(line, space) ? space : -1;
+    }
+
+    private static boolean isRequestId(String line, int length) {
+        if (length > 18) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //runs one command for this customer, the reply text is the same whichever protocol they speak
+    private Reply execute(String line) {
+        long started = System.nanoTime();
+        Reply reply = executeCommand(line);
+        barista.getMetrics().commandDone(line, System.nanoTime() - started);
+        return reply;
+    }
+
+    private Reply executeCommand(String line) {
+        try {
+            //status is what customers send most by far - answered before anything gets split or lowercased
+            if (line.equalsIgnoreCase("status") || line.equalsIgnoreCase("order status")) {
+                return Reply.STATUS;
+            }
+            //parts[0] will be the command e.g. 'order', parts[1] will be the order details - if present
+            String[] parts = line.split(" ", 2);
+
+            String command = parts[0].toLowerCase();
+            switch (command) {
+                case "order":
+                    if (parts.length > 1 && parts[1].trim().equalsIgnoreCase("status")) {
+                        return Reply.STATUS;
+                    } else if (parts.length > 1) {
+                        String orderDetails = parts[1];
+                        try {
+                            long estimate = barista.placeOrder(customerName, orderDetails);
+                            journaled();
+                            JsonLogger.log("INFO", " Order has been successfully placed by: " +customerName);
+                            return Reply.ok("your order has been placed, it should be ready in about " + AdmissionControl.formatWait(estimate) + ".");
+                        } catch (OrderRejectedException e) {
+                            //the cafe is overloaded - a clear no now beats an order that sits in a queue for ever
+                            JsonLogger.log("ERROR", " Turned down order from " + customerName + " (" + e.getReason() + "): " + orderDetails);
+                            return Reply.error("Order not taken: " + e.getMessage() + ".");
+                        } catch (OrderParseException e) {
+                            //e.g. 'order 2 peas' - tell them what was wrong instead of brewing nothing
+                            JsonLogger.log("ERROR", " Rejected order from " + customerName + " (" + e.getReason() + "): " + orderDetails);
+                            return Reply.error("Failed to place order: " + e.getMessage() + ". Please check your syntax and try again.");
+                        }
+                    }
+                    return Reply.error("Invalid order command. Please specify the order details or type 'order status'.");
+
+                case "status":
+                    return Reply.STATUS;
+
+                case "collect":
+                    String collected = barista.collectOrder(customerName);
+                    journaled();
+                    return Reply.ok(collected);
+
+                case "exit":
+                    System.out.println(customerName + " disconnected.");
+                    JsonLogger.log("INFO", customerName + " Disconnected on EXIT command");
+                    session.leave(pushes); //remove client from the barista system (prints the cafe state with -Dcafe.logState=true) - unless a newer hello took the session over
+
+                    return Reply.close("goodbye :( ");
+
+                default:
+                    JsonLogger.log("ERROR", " Invalid command from: " +customerName);
+                    return Reply.error("Invalid command. Please try again.");
+            }
+        } catch (Exception e) {
+            System.out.println("Error processing client request: " + e.getMessage());
+            JsonLogger.log("ERROR", "Error processing client request" + e.getMessage());
+            return Reply.close("Error processing your request.");
+        }
+    }
+
+    //the first line - 'CAFE/1 <name>' picks the framed protocol, 'CAFE/1 <name> resume=<token>' comes back to a session, a bare name is a legacy client
+    private boolean handleHello(String line) {
+        if (line.startsWith("CAFE/")) {
+            int space = line.indexOf(' ');
+            String version = space < 0 ? line : line.substring(0, space);
+            if (!version.equals(PROTOCOL)) {
+                writer.println(PROTOCOL + " ERR unsupported protocol " + version);
+                JsonLogger.log("ERROR", " Unsupported protocol: " + version);
+                return false;
+            }
+            framed = true;
+            String name = space < 0 ? "" : line.substring(space + 1).trim();
+            int resume = name.lastIndexOf(" resume=");
+            if (resume >= 0) {
+                return handleResume(name.substring(0, resume).trim(), name.substring(resume + 8).trim());
+            }
+            return handleName(name);
+        }
+        return handleName(line);
+    }
+
+    private static boolean isValidName(String name) {
+        return name.length() >= 2 && name.length() <= 20 && name.matches("^[a-zA-Z\\s]+$");
+    }
+
+    //read the customers name sent by the client
+    private boolean handleName(String name) {
+        System.out.println("New connection from: " + name);
+        JsonLogger.log("INFO"," New Connection:  " + name);
+
+        if (!isValidName(name)) {
+            writer.println(framed ? PROTOCOL + " ERR bad customer name" : "bad customer name");
+            JsonLogger.log("ERROR"," Bad Customer Name: " + name);
+            return false;
+        }
+        customerName = name;
+        //a session for the customer, order ready events and new estimates get pushed to this customer only
+        session = barista.getSessions().open(customerName, pushes, framed,
+                token -> writer.println(framed ? PROTOCOL + " OK session " + token : "success"));
+        return true;
+    }
+
+    //back after a dropped connection - same customer, same orders, and whatever they missed goes out after the hello reply
+    private boolean handleResume(String name, String token) {
+        System.out.println("Resuming session for: " + name);
+        JsonLogger.log("INFO", " Resume: " + name);
+        if (!isValidName(name)) {
+            writer.println(PROTOCOL + " ERR bad customer name");
+            JsonLogger.log("ERROR", " Bad Customer Name: " + name);
+            return false;
+        }
+        customerName = name;
+        session = barista.getSessions().resume(token, customerName, pushes, resumed -> writer.println(PROTOCOL + " OK session " + resumed));
+        if (session == null) {
+            //expired or never existed - the client can say hello again and start over
+            writer.println(PROTOCOL + " ERR unknown session");
+            JsonLogger.log("ERROR", " Unknown session for " + name);
+            customerName = null;
+            return false;
+        }
+        return true;
+    }
+
+    //notify the customer their order is ready - called by the barista from whichever machine finished the last cup
+    private void notifyOrderReady(String customerName) {
+        String message = "your order is ready for collection, " + customerName + "!";
+        push(framed ? "* READY " + message : message);
+        JsonLogger.log("INFO", " Order ready to be collected message for: " +customerName);
+    }
+
+    //their estimate moved - only CAFE/1 clients hear about it, a legacy client would read the push as the reply to whatever it sent next
+    private void notifyEstimate(long estimateMillis) {
+        if (!framed) {
+            return;
+        }
+        push("* ETA your order should be ready in about " + AdmissionControl.formatWait(estimateMillis) + ".");
+    }
+
+    //queues the line for pushSender, which writes everything queued by then in one flush
+    private void push(String line) {
+        if (queuedPushes.incrementAndGet() > MAX_QUEUED_PUSHES) {
+            queuedPushes.decrementAndGet();
+            dropSlowCustomer();
+            return;
+        }
+        pushQueue.add(line);
+        if (pushing.compareAndSet(false, true)) {
+            pushSender.execute(this::sendPushes);
+        }
+    }
+
+    private void sendPushes() {
+        do {
+            String line;
+            while ((line = pushQueue.poll()) != null) {
+                writer.println(line);
+                queuedPushes.decrementAndGet();
+            }
+            writer.flush(); //pushes dont wait for the next reply to go out, only for the journal like the replies they carry
+            pushing.set(false);
+        } while (!pushQueue.isEmpty() && pushing.compareAndSet(false, true)); //one that came in after the poll but before the set
+    }
+
+    //not reading what they are sent - closing the socket ends their read loop (and unblocks a write stuck on them), the session detaches as usual
+    private void dropSlowCustomer() {
+        if (socket == null || socket.isClosed()) {
+            return;
+        }
+        System.out.println("Closing connection for " + customerName + ", " + MAX_QUEUED_PUSHES + " pushes unread.");
+        JsonLogger.log("ERROR", "Closed the connection of " + customerName + " with " + MAX_QUEUED_PUSHES + " pushes unread");
+        try {
+            socket.close();
+        } catch (IOException e) {
+            //going anyway
+        }
+    }
+
+    private static final class Reply {
+        //the customers order status - filled in from the cached bytes when it is written
+        static final Reply STATUS = new Reply(true, false, null);
+
+        private final boolean ok;
+        private final boolean close;
+        private final String text;
+
+        private Reply(boolean ok, boolean close, String text) {
+            this.ok = ok;
+            this.close = close;
+            this.text = text;
+        }
+
+        static Reply ok(String text) {
+            return new Reply(true, false, text);
+        }
+
+        static Reply error(String text) {
+            return new Reply(false, false, text);
+        }
+
+        static Reply close(String text) {
+            return new Reply(true, true, text);
+        }
+    }
+}
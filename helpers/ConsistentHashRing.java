@@ -0,0 +1,63 @@
+package helpers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+//maps customer names onto nodes - each node sits at lots of points on a ring of hashes and a name belongs to the next node round from its hash
+//adding or removing a node only moves the customers between it and its neighbours, everyone else stays where their orders are
+public class ConsistentHashRing {
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    private final int nodeCount;
+
+    //virtualNodes points per node, ~100 keeps the split even with only a few nodes
+    public ConsistentHashRing(List<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("Need at least one node for the ring");
+        }
+        for (String node : nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(node + "#" + i), node);
+            }
+        }
+        this.nodeCount = nodes.size();
+    }
+
+    public String nodeFor(String key) {
+        return preferenceList(key).get(0);
+    }
+
+    //the owner first, then the other nodes in the order they come round the ring - where to go if the owner is down
+    public List<String> preferenceList(String key) {
+        List<String> nodes = new ArrayList<>(nodeCount);
+        long hash = hash(key);
+        for (Map<Long, String> part : List.of(ring.tailMap(hash), ring.headMap(hash))) {
+            for (String node : part.values()) {
+                if (!nodes.contains(node)) {
+                    nodes.add(node);
+                    if (nodes.size() == nodeCount) {
+                        return nodes;
+                    }
+                }
+            }
+        }
+        return nodes;
+    }
+
+    //64 bit FNV-1a with a murmur finaliser so similar names end up far apart on the ring
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,372 @@
+package helpers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+//everything one customer has in the cafe as plain counters, one int per menu item for each of the waiting, brewing and tray areas
+//the counters live in an immutable Snapshot and every move swaps in a new one with a CAS - so customers never wait on each other,
+//and anyone reading (status, logState) gets all three areas from the same moment without taking a lock
+//every Snapshot is stamped with the CustomerTable's epoch when it was swapped in and keeps the last one from an earlier epoch, so a
+//CafeSnapshot can read every customer as they were when its epoch started while they carry on changing (see CustomerTable.snapshot)
+//the status line is built once per change to the Snapshot or to the shown ready estimate and kept, so a customer polling status
+//between changes gets the same String / bytes back every time - nothing allocated, nothing locked
+public class CustomerOrder {
+    private final int id;
+    private final String customerName;
+    private final Menu menu;
+    private final AtomicReference<Snapshot> current;
+    private final LongAdder casRetries; //shared by every customer, counts lost races for the metrics
+    private final AtomicLong epoch; //the CustomerTable's, shared by every customer
+    private final AtomicLong readySince = new AtomicLong(-1); //clock time the oldest uncollected order became ready, -1 if none
+    private final AtomicLong readyAt = new AtomicLong(-1); //clock time the cups still waiting or brewing should all be done, -1 if not known
+    private final AtomicLong toldReadyAt = new AtomicLong(-1); //the estimate the customer last heard, -1 if none, PLACING while an order goes in
+    private volatile StatusText statusText; //the last status line built
+    private static final long PLACING = Long.MAX_VALUE;
+
+    CustomerOrder(int id, String customerName, Menu menu, LongAdder casRetries, AtomicLong epoch) {
+        this(id, customerName, menu, casRetries, epoch, new int[menu.size() * 3], -1);
+    }
+
+    //counts laid out like the Snapshot - waiting, brewing, tray. used to put a customer back after a restart, with cups still to brew
+    //they count as waiting since the restart (waitingSince) - the journal doesnt know when they ordered
+    CustomerOrder(int id, String customerName, Menu menu, LongAdder casRetries, AtomicLong epoch, int[] counts, long waitingSince) {
+        this.id = id;
+        this.customerName = customerName;
+        this.menu = menu;
+        this.casRetries = casRetries;
+        this.epoch = epoch;
+        boolean outstanding = false;
+        for (int i = 0; i < menu.size() * 2; i++) { //waiting and brewing
+            outstanding |= counts[i] != 0;
+        }
+        this.current = new AtomicReference<>(new Snapshot(0, counts, menu.size(), outstanding ? waitingSince : -1, epoch.get(), null));
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getCustomerName() {
+        return customerName;
+    }
+
+    public Snapshot snapshot() {
+        return current.get();
+    }
+
+    //the counters as they were before the table's epoch reached 'epoch', null if the customer only turned up after that
+    //only right for the newest epoch, which is why CustomerTable takes one CafeSnapshot at a time
+    Snapshot snapshotBefore(long epoch) {
+        Snapshot snapshot = current.get();
+        return snapshot.epoch < epoch ? snapshot : snapshot.previous;
+    }
+
+    //a new order arrives in the waiting area at clock time 'now' - adds on top of anything already waiting
+    public void addWaiting(int[] counts, long now) {
+        Snapshot before;
+        Snapshot after;
+        do {
+            before = current.get();
+            int[] next = before.counts.clone();
+            for (int item = 0; item < counts.length; item++) {
+                next[before.waitingIndex(item)] += counts[item];
+            }
+            after = next(before, next, before.waitingSince < 0 ? now : before.waitingSince);
+        } while (!swap(before, after));
+    }
+
+    //moves just these cups from waiting to brewing, anything else the customer has waiting stays put
+    public void startBrewing(int[] counts) {
+        Snapshot before;
+        Snapshot after;
+        do {
+            before = current.get();
+            int[] next = before.counts.clone();
+            for (int item = 0; item < counts.length; item++) {
+                next[before.waitingIndex(item)] -= counts[item];
+                next[before.brewingIndex(item)] += counts[item];
+            }
+            after = next(before, next, before.waitingSince); //still waiting for them, just not in the waiting area
+        } while (!swap(before, after));
+    }
+
+    //one cup is done, brewing -> tray
+    public void cupBrewed(int item) {
+        Snapshot before;
+        Snapshot after;
+        do {
+            before = current.get();
+            int[] next = before.counts.clone();
+            next[before.brewingIndex(item)]--;
+            next[before.trayIndex(item)]++;
+            after = next(before, next, before.isEmpty(next, 0) && before.isEmpty(next, before.items) ? -1 : before.waitingSince);
+        } while (!swap(before, after));
+    }
+
+    //empties the tray - returns what was on it (read its tray counts), or null if there was nothing
+    public Snapshot collectTray() {
+        Snapshot before;
+        Snapshot after;
+        do {
+            before = current.get();
+            if (before.isTrayEmpty()) {
+                return null;
+            }
+            int[] next = before.counts.clone();
+            for (int item = 0; item < before.items; item++) {
+                next[before.trayIndex(item)] = 0;
+            }
+            after = next(before, next, before.waitingSince);
+        } while (!swap(before, after));
+        return before;
+    }
+
+    //an order finished - only the first one counts if the tray already had one waiting
+    public void markReady(long now) {
+        readySince.compareAndSet(-1, now);
+    }
+
+    //when the tray became ready, or -1 - resets it for the next order
+    public long takeReadySince() {
+        return readySince.getAndSet(-1);
+    }
+
+    //the Snapshot that follows 'before' - stamped with the epoch read after 'before' was, so stamps never go down from one to the next
+    //the first change in a new epoch keeps 'before' as the previous one, without its own previous so there is never more than one kept
+    private Snapshot next(Snapshot before, int[] counts, long waitingSince) {
+        long now = epoch.get();
+        Snapshot previous = before.previous;
+        if (before.epoch < now) {
+            previous = before.previous == null ? before : new Snapshot(before.version, before.counts, before.items, before.waitingSince, before.epoch, null);
+        }
+        return new Snapshot(before.version + 1, counts, before.items, waitingSince, now, previous);
+    }
+
+    private boolean swap(Snapshot before, Snapshot after) {
+        if (current.compareAndSet(before, after)) {
+            return true;
+        }
+        casRetries.increment();
+        return false;
+    }
+
+    //when everything waiting or brewing should be done (clock time) - returns what it was before
+    public long setReadyAt(long readyAt) {
+        return this.readyAt.getAndSet(readyAt);
+    }
+
+    public long getReadyAt() {
+        return readyAt.get();
+    }
+
+    //an order is being queued - no pushes until told(), the reply to the order carries the estimate
+    public void placing() {
+        toldReadyAt.set(PLACING);
+    }
+
+    //the customer has been given readyAt as their estimate, pushes are measured from it
+    public void told(long readyAt) {
+        toldReadyAt.set(readyAt);
+    }
+
+    //true if the customer should hear about readyAt - the first estimate, or one that moved at least minChangeMillis and a quarter of
+    //the wait they were last told from what they were told. -1 (nothing left to brew) is never told, it just resets
+    public boolean retell(long readyAt, long now, long minChangeMillis) {
+        if (readyAt < 0) {
+            toldReadyAt.set(-1);
+            return false;
+        }
+        while (true) {
+            long told = toldReadyAt.get();
+            if (told == PLACING) {
+                return false;
+            }
+            if (told >= 0 && Math.abs(readyAt - told) < Math.max(minChangeMillis, (told - now) / 4)) {
+                return false;
+            }
+            if (toldReadyAt.compareAndSet(told, readyAt)) {
+                return true;
+            }
+        }
+    }
+
+    //'Order status for Bob: Waiting: Tea: 1, Coffee: 0; Brewing: 0; Tray: 0.' as of now, with '; Ready in about 30s.' while
+    //anything is waiting or brewing. now is the brew clock's time, only used for the estimate
+    public String status(long now) {
+        return statusText(now).text;
+    }
+
+    //status() as UTF-8, ready to go out on a socket
+    public byte[] statusBytes(long now) {
+        return statusText(now).bytes;
+    }
+
+    private StatusText statusText(long now) {
+        Snapshot snapshot = current.get();
+        long due = readyAt.get();
+        long shownWait = due < 0 || snapshot.isWaitingEmpty() && snapshot.isBrewingEmpty() ? -1 : AdmissionControl.shownWaitSeconds(due - now);
+        StatusText last = statusText;
+        if (last != null && last.snapshot == snapshot && last.shownWait == shownWait) {
+            return last;
+        }
+        //two readers can both get here, they build the same text so whichever lands is fine
+        StringBuilder status = new StringBuilder(80).append("Order status for ").append(customerName).append(": Waiting: ");
+        appendWaiting(status, snapshot);
+        status.append("; Brewing: ");
+        appendBrewing(status, snapshot);
+        status.append("; Tray: ");
+        appendTray(status, snapshot);
+        if (shownWait >= 0) {
+            status.append("; Ready in about ").append(AdmissionControl.formatWait(shownWait * 1000));
+        }
+        StatusText built = new StatusText(snapshot, shownWait, status.append('.').toString());
+        statusText = built;
+        return built;
+    }
+
+    //what status() says for a customer with no order at all
+    public static String emptyStatus(String customerName) {
+        return "Order status for " + customerName + ": Waiting: 0; Brewing: 0; Tray: 0.";
+    }
+
+    //'Tea: 1, Coffee: 2' like the old area strings, or '0' when there is nothing in that area
+    public void appendWaiting(StringBuilder out, Snapshot snapshot) {
+        appendArea(out, snapshot, 0);
+    }
+
+    public void appendBrewing(StringBuilder out, Snapshot snapshot) {
+        appendArea(out, snapshot, snapshot.items);
+    }
+
+    public void appendTray(StringBuilder out, Snapshot snapshot) {
+        appendArea(out, snapshot, snapshot.items * 2);
+    }
+
+    private void appendArea(StringBuilder out, Snapshot snapshot, int offset) {
+        if (snapshot.isEmpty(offset)) {
+            out.append('0');
+            return;
+        }
+        for (int item = 0; item < snapshot.items; item++) {
+            if (item > 0) {
+                out.append(", ");
+            }
+            out.append(menu.get(item).getName()).append(": ").append(snapshot.counts[offset + item]);
+        }
+    }
+
+    //a status line and the counts and shown estimate it was built from
+    private static final class StatusText {
+        private final Snapshot snapshot;
+        private final long shownWait;
+        private final String text;
+        private final byte[] bytes;
+
+        StatusText(Snapshot snapshot, long shownWait, String text) {
+            this.snapshot = snapshot;
+            this.shownWait = shownWait;
+            this.text = text;
+            this.bytes = text.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    //the counters at one moment - waiting, brewing and tray one after the other in one array. never changed once published
+    public static final class Snapshot {
+        private final long version;
+        private final int[] counts;
+        private final int items;
+        private final long waitingSince; //clock time the customer last went from nothing outstanding to cups to brew, -1 while there are none
+        private final long epoch;
+        private final Snapshot previous; //the last one from an earlier epoch, or null
+
+        Snapshot(long version, int[] counts, int items, long waitingSince, long epoch, Snapshot previous) {
+            this.version = version;
+            this.counts = counts;
+            this.items = items;
+            this.waitingSince = waitingSince;
+            this.epoch = epoch;
+            this.previous = previous;
+        }
+
+        //goes up by one with every change to this customer
+        public long getVersion() {
+            return version;
+        }
+
+        //how long the customer has been waiting for cups - set by the order that found nothing waiting or brewing, cleared when
+        //the last outstanding cup reaches the tray. not the waiting area on its own, orders only pass through that on the way to the
+        //machines' queues. an order placed before the last one finished keeps the earlier time, roughly. -1 if nothing is outstanding
+        public long getWaitingSince() {
+            return waitingSince;
+        }
+
+        //cups waiting or brewing
+        public int outstanding() {
+            int outstanding = 0;
+            for (int item = 0; item < items; item++) {
+                outstanding += counts[waitingIndex(item)] + counts[brewingIndex(item)];
+            }
+            return outstanding;
+        }
+
+        public int waiting(int item) {
+            return counts[waitingIndex(item)];
+        }
+
+        public int brewing(int item) {
+            return counts[brewingIndex(item)];
+        }
+
+        public int tray(int item) {
+            return counts[trayIndex(item)];
+        }
+
+        public boolean isWaitingEmpty() {
+            return isEmpty(0);
+        }
+
+        public boolean isBrewingEmpty() {
+            return isEmpty(items);
+        }
+
+        public boolean isTrayEmpty() {
+            return isEmpty(items * 2);
+        }
+
+        public boolean isEmpty() {
+            for (int count : counts) {
+                if (count != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean isEmpty(int offset) {
+            return isEmpty(counts, offset);
+        }
+
+        private boolean isEmpty(int[] counts, int offset) {
+            for (int item = 0; item < items; item++) {
+                if (counts[offset + item] != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int waitingIndex(int item) {
+            return item;
+        }
+
+        private int brewingIndex(int item) {
+            return items + item;
+        }
+
+        private int trayIndex(int item) {
+            return items * 2 + item;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package helpers;
+
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+//a customer's place in the cafe outlives their connection. saying hello opens a session with a token, and if the connection drops
+//without exit the session is only detached: the orders keep brewing, pushes for it wait in a small buffer, and a new connection saying
+//'CAFE/1 <name> resume=<token>' gets the lot back - no new customer, nothing queued again. a session nobody resumes within keepMillis
+//expires on a TimerWheel and the customer leaves as if they had said exit
+//legacy clients have no way to come back with a token, so their session ends with their connection like it always did
+//a hello with the name of a customer who already has a session takes it over - one session per name, the old token stops working
+//tokens only live in memory, after a restart everyone says hello again
+public class CustomerSessions {
+    private static final int TOKEN_BYTES = 16;
+
+    private final BrewClock clock;
+    private final TimerWheel expiry;
+    private final long keepMillis;
+    private final int maxMissed;
+    private final Consumer<Session> joined; //a new customer, called once per session before anything is pushed to it
+    private final Consumer<String> left; //the customer is gone for good - exit, or expired. called once per session, outside its lock
+    private final ConcurrentHashMap<String, Session> byName = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Session> byToken = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+
+    private final AtomicInteger detached = new AtomicInteger();
+    private final LongAdder resumed = new LongAdder();
+    private final LongAdder resumeFailed = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder missedDropped = new LongAdder();
+
+    public CustomerSessions(BrewClock clock, long keepMillis, int maxMissed, long tickMillis, Consumer<Session> joined, Consumer<String> left) {
+        if (keepMillis < 0 || maxMissed < 0) {
+            throw new IllegalArgumentException("Session keep time and missed buffer cant be negative");
+        }
+        this.clock = clock;
+        this.keepMillis = keepMillis;
+        this.maxMissed = maxMissed;
+        this.joined = joined;
+        this.left = left;
+        //one turn of the wheel covers the keep time, so a detached session sits in its slot for a single pass
+        this.expiry = new TimerWheel(clock, tickMillis, (int) Math.max(1, Math.min(4096, keepMillis / tickMillis + 1)));
+    }
+
+    //-Dcafe.session.keepMillis=120000, -Dcafe.session.maxMissed=16, -Dcafe.session.tickMillis=1000
+    public static CustomerSessions fromSystemProperties(BrewClock clock, Consumer<Session> joined, Consumer<String> left) {
+        return new CustomerSessions(clock,
+                Long.getLong("cafe.session.keepMillis", 120_000),
+                Integer.getInteger("cafe.session.maxMissed", 16),
+                Long.getLong("cafe.session.tickMillis", 1_000),
+                joined, left);
+    }
+
+    //a hello - a new session for the name, or the one it already has under a new token. resumable = false for legacy clients
+    //greeting gets the token once the session is on this connection, and runs before anything it missed goes out so the hello reply comes first
+    public Session open(String customerName, OrderListener connection, boolean resumable, Consumer<String> greeting) {
+        boolean[] created = new boolean[1];
+        Session session = byName.compute(customerName, (name, existing) -> {
+            if (existing == null) {
+                created[0] = true;
+                return new Session(name);
+            }
+            return existing;
+        });
+        if (created[0]) {
+            joined.accept(session);
+        }
+        synchronized (session) {
+            if (session.ended) {
+                //it expired or was left between the lookup and here - start again with a new one
+                return open(customerName, connection, resumable, greeting);
+            }
+            if (session.token != null) {
+                byToken.remove(session.token, session);
+            }
+            session.token = newToken();
+            byToken.put(session.token, session);
+            session.resumable = resumable;
+            attach(session, connection);
+            greeting.accept(session.token);
+            session.replayMissed(); //a taken over session that was detached still has its pushes waiting
+        }
+        return session;
+    }
+
+    //'resume=<token>' - the session back on this connection, or null if the token is unknown, expired or not this customer's
+    public Session resume(String token, String customerName, OrderListener connection, Consumer<String> greeting) {
+        Session session = byToken.get(token);
+        if (session == null || !session.customerName.equals(customerName)) {
+            resumeFailed.increment();
+            return null;
+        }
+        synchronized (session) {
+            if (session.ended || !token.equals(session.token)) {
+                resumeFailed.increment();
+                return null;
+            }
+            attach(session, connection);
+            resumed.increment();
+            greeting.accept(token);
+            session.replayMissed();
+        }
+        return session;
+    }
+
+    private void attach(Session session, OrderListener connection) {
+        if (session.expiry != null) {
+            session.expiry.cancel();
+            session.expiry = null;
+        }
+        if (session.connection == null && session.detachedSince >= 0) {
+            detached.decrementAndGet();
+        }
+        session.detachedSince = -1;
+        session.connection = connection; //a connection still attached (half open, or a take over) just stops getting pushes
+    }
+
+    private String newToken() {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        StringBuilder token = new StringBuilder(TOKEN_BYTES * 2);
+        for (byte b : bytes) {
+            token.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return token.toString();
+    }
+
+    private void end(Session session) {
+        session.ended = true;
+        session.connection = null;
+        if (session.expiry != null) {
+            session.expiry.cancel();
+            session.expiry = null;
+        }
+        if (session.detachedSince >= 0) {
+            detached.decrementAndGet();
+            session.detachedSince = -1;
+        }
+        byName.remove(session.customerName, session);
+        if (session.token != null) {
+            byToken.remove(session.token, session);
+        }
+    }
+
+    private void expire(Session session) {
+        synchronized (session) {
+            if (session.ended || session.connection != null) {
+                return; //resumed just in time
+            }
+            end(session);
+        }
+        expired.increment();
+        System.out.println("Session for " + session.customerName + " expired after " + keepMillis + "ms without a connection");
+        JsonLogger.log("INFO", "Session expired for " + session.customerName);
+        left.accept(session.customerName);
+    }
+
+    public int size() {
+        return byName.size();
+    }
+
+    public void collect(Map<String, Number> values) {
+        values.put("sessions.open", byName.size());
+        values.put("sessions.detached", detached.get());
+        values.put("sessions.resumed", resumed.sum());
+        values.put("sessions.resumeFailed", resumeFailed.sum());
+        values.put("sessions.expired", expired.sum());
+        values.put("sessions.missedDropped", missedDropped.sum());
+    }
+
+    //one customer's session - it is the OrderListener the barista pushes to, and passes each push on to whichever connection has it,
+    //or keeps it for when they come back
+    public final class Session implements OrderListener {
+        private final String customerName;
+        private String token; //guarded by the session, changes when a hello takes the session over
+        private boolean resumable;
+        private OrderListener connection; //null while detached
+        private long detachedSince = -1;
+        private BrewClock.Timeout expiry; //while detached
+        private boolean ended = false;
+        private final ArrayDeque<Consumer<OrderListener>> missed = new ArrayDeque<>(); //pushes while detached, oldest dropped past maxMissed
+        private long missedReadyAt = -1; //only the latest estimate matters, kept as a clock time so it is still right when replayed
+
+        private Session(String customerName) {
+            this.customerName = customerName;
+        }
+
+        public String getCustomerName() {
+            return customerName;
+        }
+
+        public synchronized String getToken() {
+            return token;
+        }
+
+        //the connection went without exit - returns false if this connection didnt have the session any more
+        //a resumable session waits keepMillis for the customer to come back, anything else ends here and the customer leaves
+        public boolean detach(OrderListener from) {
+            synchronized (this) {
+                if (ended || connection != from) {
+                    return false;
+                }
+                if (resumable && keepMillis > 0) {
+                    connection = null;
+                    detachedSince = clock.now();
+                    detached.incrementAndGet();
+                    expiry = CustomerSessions.this.expiry.schedule(keepMillis, () -> expire(this));
+                    return true;
+                }
+                end(this);
+            }
+            left.accept(customerName);
+            return true;
+        }
+
+        //exit - the customer leaves now. false if this connection didnt have the session any more (another hello took it over)
+        public boolean leave(OrderListener from) {
+            synchronized (this) {
+                if (ended || connection != from) {
+                    return false;
+                }
+                end(this);
+            }
+            left.accept(customerName);
+            return true;
+        }
+
+        public synchronized boolean isAttached() {
+            return connection != null;
+        }
+
+        @Override
+        public synchronized void orderReady(String customerName) {
+            if (connection != null) {
+                connection.orderReady(customerName);
+                return;
+            }
+            missedReadyAt = -1; //the order it was about is done
+            remember(listener -> listener.orderReady(customerName));
+        }
+
+        @Override
+        public synchronized void readyEstimateChanged(String customerName, long estimateMillis) {
+            if (connection != null) {
+                connection.readyEstimateChanged(customerName, estimateMillis);
+                return;
+            }
+            missedReadyAt = clock.now() + estimateMillis;
+        }
+
+        private void remember(Consumer<OrderListener> push) {
+            if (maxMissed == 0) {
+                missedDropped.increment();
+                return;
+            }
+            if (missed.size() == maxMissed) {
+                missed.pollFirst();
+                missedDropped.increment();
+            }
+            missed.addLast(push);
+        }
+
+        //guarded by the session, called with the new connection attached
+        private void replayMissed() {
+            Consumer<OrderListener> push;
+            while ((push = missed.pollFirst()) != null) {
+                push.accept(connection);
+            }
+            long now = clock.now();
+            if (missedReadyAt > now) {
+                connection.readyEstimateChanged(customerName, missedReadyAt - now);
+            }
+            missedReadyAt = -1;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package helpers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+//interns customer names - each name maps to one CustomerOrder with a small int id, so the areas dont need a map entry (or a string) per area
+//also takes CafeSnapshots - every customer as they were at one moment, while orders, brewing and collecting carry on:
+//  - the snapshot starts a new epoch. every change to a customer is stamped with the epoch it read, and the first change in a new epoch
+//    keeps the counters from before it, so whenever the snapshot gets round to a customer it can still read them as they were
+//  - a change that read the old epoch just before the new one started is at the same moment as the snapshot, it can land either side.
+//    anything that happened after it started read the new epoch, so nothing in the snapshot can depend on something that isnt
+//  - customers who leave while the snapshot walks the table might be gone before it gets to them, so leaving puts them on a list for it.
+//    the only wait is leaving (and starting or finishing a snapshot) around that list, never placing, brewing, status or collecting
+public class CustomerTable {
+    private final ConcurrentHashMap<String, CustomerOrder> byName = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger(0);
+    private final Menu menu;
+    private final LongAdder casRetries;
+    private final AtomicLong epoch = new AtomicLong(0);
+    private final StampedLock leaving = new StampedLock(); //leavers share it, a snapshot starting or finishing has it alone
+    private volatile ConcurrentLinkedQueue<CustomerOrder> leftDuringSnapshot; //null while no snapshot is walking the table
+
+    public CustomerTable(Menu menu, LongAdder casRetries) {
+        this.menu = menu;
+        this.casRetries = casRetries;
+    }
+
+    public CustomerOrder intern(String customerName) {
+        return byName.computeIfAbsent(customerName, name -> new CustomerOrder(nextId.getAndIncrement(), name, menu, casRetries, epoch));
+    }
+
+    //a customer read back from the OrderJournal, keeps their old id so the journal records still point at them
+    public CustomerOrder restore(int id, String customerName, int[] counts, long now) {
+        CustomerOrder order = new CustomerOrder(id, customerName, menu, casRetries, epoch, counts, now);
+        byName.put(customerName, order);
+        nextId.accumulateAndGet(id + 1, Math::max);
+        return order;
+    }
+
+    //new customers get ids from here on, so they never share one with a customer from before a restart
+    public void reserveIds(int next) {
+        nextId.accumulateAndGet(next, Math::max);
+    }
+
+    //null if the customer has nothing in the cafe
+    public CustomerOrder get(String customerName) {
+        return byName.get(customerName);
+    }
+
+    public CustomerOrder remove(String customerName) {
+        long stamp = leaving.readLock();
+        try {
+            CustomerOrder removed = byName.remove(customerName);
+            ConcurrentLinkedQueue<CustomerOrder> left = leftDuringSnapshot;
+            if (removed != null && left != null) {
+                left.add(removed);
+            }
+            return removed;
+        } finally {
+            leaving.unlockRead(stamp);
+        }
+    }
+
+    public Collection<CustomerOrder> all() {
+        return byName.values();
+    }
+
+    //every customer who had anything in the cafe, as of now - one at a time, the epoch trick only keeps the counters from before the latest one
+    public synchronized CafeSnapshot snapshot(long takenAt) {
+        long cut;
+        ConcurrentLinkedQueue<CustomerOrder> left = new ConcurrentLinkedQueue<>();
+        long stamp = leaving.writeLock();
+        try {
+            leftDuringSnapshot = left;
+            cut = epoch.incrementAndGet();
+        } finally {
+            leaving.unlockWrite(stamp);
+        }
+
+        List<CafeSnapshot.Entry> entries = new ArrayList<>(byName.size());
+        for (CustomerOrder order : byName.values()) {
+            CustomerOrder.Snapshot before = order.snapshotBefore(cut);
+            if (before != null) {
+                entries.add(new CafeSnapshot.Entry(order, before));
+            }
+        }
+
+        stamp = leaving.writeLock();
+        try {
+            leftDuringSnapshot = null;
+        } finally {
+            leaving.unlockWrite(stamp);
+        }
+        //they were all here when it started - some were walked before they left, the rest are added now
+        if (!left.isEmpty()) {
+            Set<CustomerOrder> gone = Collections.newSetFromMap(new IdentityHashMap<>());
+            gone.addAll(left);
+            entries.removeIf(entry -> gone.contains(entry.getOrder()));
+            for (CustomerOrder order : gone) {
+                CustomerOrder.Snapshot before = order.snapshotBefore(cut);
+                if (before != null) {
+                    entries.add(new CafeSnapshot.Entry(order, before));
+                }
+            }
+        }
+        return new CafeSnapshot(menu, takenAt, entries);
+    }
+}
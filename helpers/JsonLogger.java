@@ -1,39 +1,51 @@
-package helpers;
-
-
-import com.google.gson.Gson;
-
-import java.io.FileWriter;
-import java.io.IOException;
-import java.time.LocalDateTime;
-
-public class JsonLogger {
-    private static final String LOG_FILE = "server_logs.json";
-    private static final Gson gson = new Gson();
-
-    public static void log(String level, String message) {
-        //create a log entry
-        LogEntry logEntry = new LogEntry(level, message);
-
-        //write the log entry to the file - logfile is automatically created
-        try (FileWriter writer = new FileWriter(LOG_FILE, true)) {
-            gson.toJson(logEntry, writer);
-            writer.write("\n");
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    //inner class to represent a log entry
-    private static class LogEntry {
-        private final String timestamp;
-        private final String level;
-        private final String message;
-
-        public LogEntry(String level, String message) {
-            this.timestamp = LocalDateTime.now().toString();
-            this.level = level;
-            this.message = message;
-        }
-    }
-}
+package helpers;
+
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+
+public class JsonLogger {
+    private static final String LOG_FILE = "server_logs.json";
+    //-Dcafe.quiet=true - no log at all and no event printing, for simulations that push millions of orders through and only want the numbers
+    public static final boolean QUIET = Boolean.getBoolean("cafe.quiet");
+    //one appender for the whole server - the file stays open and a background thread does the writing (see AsyncLogAppender for the settings)
+    private static final AsyncLogAppender appender = QUIET ? null : openAppender();
+
+    public static void log(String level, String message) {
+        if (QUIET) {
+            return;
+        }
+        //create a log entry - timestamped here so it is the time of the event, not the time it was written
+        appender.append(new LogEntry(level, message));
+    }
+
+    //makes sure everything logged so far is written before the jvm exits - also run on shutdown
+    public static void shutdown() {
+        if (appender != null) {
+            appender.close();
+        }
+    }
+
+    private static AsyncLogAppender openAppender() {
+        try {
+            AsyncLogAppender opened = AsyncLogAppender.fromSystemProperties(LOG_FILE); //logfile is automatically created
+            Runtime.getRuntime().addShutdownHook(new Thread(opened::close, "json-log-shutdown"));
+            return opened;
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not open " + LOG_FILE, e);
+        }
+    }
+
+    //inner class to represent a log entry
+    private static class LogEntry {
+        private final String timestamp;
+        private final String level;
+        private final String message;
+
+        public LogEntry(String level, String message) {
+            this.timestamp = LocalDateTime.now().toString();
+            this.level = level;
+            this.message = message;
+        }
+    }
+}
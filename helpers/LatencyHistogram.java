@@ -0,0 +1,134 @@
+package helpers;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+//fixed memory latency histogram in the style of HdrHistogram - values below 128 are exact, above that each power of two
+//is split into 64 buckets, so any recorded value is off by less than ~1.6%. recording is safe from any thread and shares no
+//cache line between threads on different cores: the counters are LongAdders (the max a LongAccumulator) and the buckets are
+//striped, each thread adds to its own stripe's copy and reads add the stripes up
+public class LatencyHistogram {
+    private static final int SUB_BUCKETS = 128;
+    private static final int HALF = SUB_BUCKETS / 2;
+    private static final int SHIFT = 6; //log2(HALF)
+    private static final int MAX_MAGNITUDE = 40; //values up to 2^46, e.g. about 2 years in microseconds
+    private static final int BUCKETS = SUB_BUCKETS + HALF * MAX_MAGNITUDE;
+    //a power of two at least the core count, capped - a stripe is ~21KB and is only made once a thread that hashes to it records
+    private static final int STRIPES = Math.min(64, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1) << 1));
+
+    private final AtomicReferenceArray<AtomicLongArray> stripes = new AtomicReferenceArray<>(STRIPES);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        stripe().incrementAndGet(indexOf(value));
+        total.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public void add(LatencyHistogram other) {
+        AtomicLongArray counts = stripe();
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = other.countAt(i);
+            if (count != 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        total.add(other.total.sum());
+        sum.add(other.sum.sum());
+        max.accumulate(other.max.get());
+    }
+
+    public long getCount() {
+        return total.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long count = total.sum();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    //the value that percentile% of recordings are at or below, e.g. valueAt(99.9)
+    public long valueAt(double percentile) {
+        long count = total.sum();
+        if (count == 0) {
+            return 0;
+        }
+        long wanted = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += countAt(i);
+            if (seen >= wanted) {
+                return Math.min(highestValueAt(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int s = 0; s < STRIPES; s++) {
+            AtomicLongArray counts = stripes.get(s);
+            if (counts != null) {
+                for (int i = 0; i < BUCKETS; i++) {
+                    counts.set(i, 0);
+                }
+            }
+        }
+        total.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    //this threads stripe, made the first time a thread lands on it
+    private AtomicLongArray stripe() {
+        int hash = System.identityHashCode(Thread.currentThread()) * 0x9E3779B9; //mixed, so the stripes are used evenly
+        int s = (hash >>> 26) & (STRIPES - 1);
+        AtomicLongArray counts = stripes.get(s);
+        if (counts == null) {
+            stripes.compareAndSet(s, null, new AtomicLongArray(BUCKETS));
+            counts = stripes.get(s);
+        }
+        return counts;
+    }
+
+    //bucket i across every stripe
+    private long countAt(int i) {
+        long count = 0;
+        for (int s = 0; s < STRIPES; s++) {
+            AtomicLongArray counts = stripes.get(s);
+            if (counts != null) {
+                count += counts.get(i);
+            }
+        }
+        return count;
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = Math.min(63 - Long.numberOfLeadingZeros(value) - SHIFT, MAX_MAGNITUDE);
+        long subBucket = Math.min(value >>> magnitude, SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (magnitude - 1) * HALF + (int) (subBucket - HALF);
+    }
+
+    private static long highestValueAt(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int magnitude = (index - SUB_BUCKETS) / HALF + 1;
+        long subBucket = (index - SUB_BUCKETS) % HALF + HALF;
+        return ((subBucket + 1) << magnitude) - 1;
+    }
+}
@@ -0,0 +1,76 @@
+package helpers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+//reads '\n' terminated lines straight off a socket stream with one reused buffer - no Scanner, no regex delimiter matching
+//also says whether more input is already buffered, so the handler can hold off flushing replies while a client is pipelining
+public class LineReader {
+    private final InputStream in;
+    private final int maxLineLength;
+    private byte[] buffer = new byte[8192];
+    private int start = 0; //first unread byte
+    private int end = 0; //one past the last byte read from the stream
+
+    public LineReader(InputStream in, int maxLineLength) {
+        this.in = in;
+        this.maxLineLength = maxLineLength;
+    }
+
+    //null at end of stream - a last line without '\n' still counts
+    public String readLine() throws IOException {
+        int scanned = 0; //bytes after start already checked for '\n' - relative, because fill() can move the data
+        while (true) {
+            for (int i = start + scanned; i < end; i++) {
+                if (buffer[i] == '\n') {
+                    String line = decode(start, i);
+                    start = i + 1;
+                    return line;
+                }
+            }
+            scanned = end - start;
+            if (scanned >= maxLineLength) {
+                throw new IOException("line longer than " + maxLineLength + " bytes");
+            }
+            if (!fill()) {
+                if (start == end) {
+                    return null;
+                }
+                String line = decode(start, end);
+                start = end;
+                return line;
+            }
+        }
+    }
+
+    //true if a whole line (or the start of one) is already sitting in the buffer
+    public boolean hasBuffered() {
+        return start < end;
+    }
+
+    private boolean fill() throws IOException {
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        if (end == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int read = in.read(buffer, end, buffer.length - end);
+        if (read < 0) {
+            return false;
+        }
+        end += read;
+        return true;
+    }
+
+    private String decode(int from, int to) {
+        if (to > from && buffer[to - 1] == '\r') {
+            to--;
+        }
+        return new String(buffer, from, to - from, StandardCharsets.UTF_8);
+    }
+}
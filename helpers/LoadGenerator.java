@@ -0,0 +1,299 @@
+package helpers;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+//headless customers for load testing the barista - N simulated customers on their own connections, each picking commands from a weighted mix
+//closed loop (default): each customer sends its next command when the last reply comes back, plus an optional think time
+//open loop (rate=...): commands go out on a fixed schedule whatever the replies are doing, and latency is measured from when the command
+//was *meant* to go out, so a slow server cant hide its queueing (no coordinated omission)
+//run: java -cp target/cafe.jar Customer load customers=200 duration=30 mix=order:1,status:6,collect:2,exit:0 rate=2000 label=nio
+public class LoadGenerator {
+    private static final String[] COMMANDS = {"order", "status", "collect", "exit"};
+
+    private final String host;
+    private final int port;
+    private final int customerCount;
+    private final long durationMillis;
+    private final int[] mixWeights = new int[COMMANDS.length];
+    private final int mixTotal;
+    private final double rate; //commands/sec across everyone, 0 = closed loop
+    private final long thinkMillis;
+    private final String orderDetails;
+
+    private final Map<String, LatencyHistogram> latencies = new LinkedHashMap<>(); //microseconds per command type
+    private final Map<String, AtomicLong> errors = new LinkedHashMap<>();
+    private final LatencyHistogram orderToReady = new LatencyHistogram();
+    private final List<SimulatedCustomer> customers = new ArrayList<>();
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+    private final ExecutorService reconnects = Executors.newFixedThreadPool(4);
+    private volatile boolean running = true;
+    private double elapsedSeconds;
+
+    public LoadGenerator(Map<String, String> options) {
+        this.host = options.getOrDefault("host", "localhost");
+        this.port = Integer.parseInt(options.getOrDefault("port", "12345"));
+        this.customerCount = Integer.parseInt(options.getOrDefault("customers", "50"));
+        this.durationMillis = (long) (Double.parseDouble(options.getOrDefault("duration", "30")) * 1000);
+        this.rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+        this.thinkMillis = Long.parseLong(options.getOrDefault("think", "0"));
+        this.orderDetails = options.getOrDefault("order", "1 tea and 1 coffee");
+        int total = 0;
+        for (String part : options.getOrDefault("mix", "order:1,status:6,collect:2,exit:0").split(",")) {
+            String[] weight = part.split(":");
+            int command = commandIndex(weight[0].trim());
+            mixWeights[command] = Integer.parseInt(weight[1].trim());
+            total += mixWeights[command];
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("The command mix needs at least one weight above 0");
+        }
+        this.mixTotal = total;
+        for (String command : COMMANDS) {
+            latencies.put(command, new LatencyHistogram());
+            errors.put(command, new AtomicLong());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals > 0) {
+                options.put(arg.substring(0, equals), arg.substring(equals + 1));
+            }
+        }
+        LoadGenerator generator = new LoadGenerator(options);
+        generator.run();
+        String label = options.getOrDefault("label", "run");
+        generator.printReport(label);
+        if (options.containsKey("report")) {
+            generator.appendCsv(options.get("report"), label);
+        }
+    }
+
+    public void run() throws Exception {
+        System.out.println("Connecting " + customerCount + " customers to " + host + ":" + port + "...");
+        for (int i = 0; i < customerCount; i++) {
+            SimulatedCustomer customer = new SimulatedCustomer(nameFor(i), new Random(i));
+            customer.connect();
+            customers.add(customer);
+        }
+        System.out.println("Running for " + durationMillis / 1000.0 + "s, " + (rate > 0 ? "open loop at " + rate + " commands/sec" : "closed loop"));
+
+        long start = System.nanoTime();
+        if (rate > 0) {
+            runOpenLoop(start);
+        } else {
+            for (SimulatedCustomer customer : customers) {
+                customer.next();
+            }
+            Thread.sleep(durationMillis);
+        }
+        running = false;
+        long elapsed = System.nanoTime() - start;
+        Thread.sleep(500); //let replies that are still on the wire come in
+        scheduler.shutdownNow();
+        reconnects.shutdownNow();
+        for (SimulatedCustomer customer : customers) {
+            customer.close();
+        }
+        elapsedSeconds = elapsed / 1e9;
+    }
+
+    //one command every 1/rate seconds to the next customer in turn - sent without waiting for earlier replies
+    private void runOpenLoop(long start) throws InterruptedException {
+        long intervalNanos = (long) (1e9 / rate);
+        long end = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        long sent = 0;
+        while (true) {
+            long intended = start + sent * intervalNanos;
+            if (intended >= end) {
+                return;
+            }
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            customers.get((int) (sent % customers.size())).send(pickCommand(ThreadLocalRandom.current()), intended);
+            sent++;
+        }
+    }
+
+    private int pickCommand(Random random) {
+        int roll = random.nextInt(mixTotal);
+        for (int i = 0; i < mixWeights.length; i++) {
+            roll -= mixWeights[i];
+            if (roll < 0) {
+                return i;
+            }
+        }
+        return 1;
+    }
+
+    private static int commandIndex(String name) {
+        for (int i = 0; i < COMMANDS.length; i++) {
+            if (COMMANDS[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown command in mix: " + name + " (use order, status, collect, exit)");
+    }
+
+    //customer names can only have letters, so the number is written in letters: 0 -> Loada, 27 -> Loadbb
+    private static String nameFor(int index) {
+        StringBuilder name = new StringBuilder("Load");
+        do {
+            name.append((char) ('a' + index % 26));
+            index /= 26;
+        } while (index > 0);
+        return name.toString();
+    }
+
+    public void printReport(String label) {
+        System.out.println();
+        System.out.printf("Load report '%s': %d customers, %.1fs%n", label, customerCount, elapsedSeconds);
+        System.out.printf("%-20s %10s %8s %10s %10s %10s %10s %10s %12s%n",
+                "command", "count", "errors", "mean ms", "p50 ms", "p99 ms", "p999 ms", "max ms", "per sec");
+        for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+            printRow(entry.getKey(), entry.getValue(), errors.get(entry.getKey()).get());
+        }
+        printRow("order-to-first-ready", orderToReady, 0);
+    }
+
+    private void printRow(String name, LatencyHistogram histogram, long errorCount) {
+        System.out.printf("%-20s %10d %8d %10.2f %10.2f %10.2f %10.2f %10.2f %12.1f%n", name, histogram.getCount(), errorCount,
+                histogram.getMean() / 1000.0, histogram.valueAt(50) / 1000.0, histogram.valueAt(99) / 1000.0,
+                histogram.valueAt(99.9) / 1000.0, histogram.getMax() / 1000.0, histogram.getCount() / elapsedSeconds);
+    }
+
+    //one line per command type, so runs against different server builds can be put side by side
+    public void appendCsv(String file, String label) throws IOException {
+        boolean isNew = !new java.io.File(file).exists();
+        try (PrintWriter out = new PrintWriter(new FileWriter(file, true))) {
+            if (isNew) {
+                out.println("label,customers,seconds,command,count,errors,mean_us,p50_us,p99_us,p999_us,max_us,per_sec");
+            }
+            for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+                csvRow(out, label, entry.getKey(), entry.getValue(), errors.get(entry.getKey()).get());
+            }
+            csvRow(out, label, "order-to-first-ready", orderToReady, 0);
+        }
+        System.out.println("Appended results to " + file);
+    }
+
+    private void csvRow(PrintWriter out, String label, String name, LatencyHistogram histogram, long errorCount) {
+        out.printf("%s,%d,%.1f,%s,%d,%d,%.0f,%d,%d,%d,%d,%.1f%n", label, customerCount, elapsedSeconds, name, histogram.getCount(), errorCount,
+                histogram.getMean(), histogram.valueAt(50), histogram.valueAt(99), histogram.valueAt(99.9), histogram.getMax(),
+                histogram.getCount() / elapsedSeconds);
+    }
+
+    private final class SimulatedCustomer {
+        private final String name;
+        private final Random random;
+        private final ConcurrentLinkedQueue<Long> ordersInFlight = new ConcurrentLinkedQueue<>(); //send times of orders not yet ready
+        private volatile CafeClient client;
+        private volatile boolean reconnecting = false;
+
+        SimulatedCustomer(String name, Random random) {
+            this.name = name;
+            this.random = random;
+        }
+
+        void connect() throws IOException {
+            ordersInFlight.clear();
+            client = CafeClient.connect(host, port, name, this::onPush);
+        }
+
+        //closed loop - next command once the previous one is answered
+        void next() {
+            if (running) {
+                send(pickCommand(random), System.nanoTime());
+            }
+        }
+
+        void send(int command, long intendedNanos) {
+            CafeClient current = client;
+            if (reconnecting || current == null) {
+                errors.get(COMMANDS[command]).incrementAndGet(); //customer is between connections, counts as a failed command
+                return;
+            }
+            String text = command == 0 ? "order " + orderDetails : COMMANDS[command];
+            CompletableFuture<CafeClient.Response> reply = current.send(text);
+            reply.whenComplete((response, error) -> {
+                latencies.get(COMMANDS[command]).record((System.nanoTime() - intendedNanos) / 1000);
+                if (error != null || !response.isOk()) {
+                    errors.get(COMMANDS[command]).incrementAndGet();
+                } else if (command == 0) {
+                    //only a placed order will ever get a READY - a turned down one left in here would be matched with the next order's
+                    ordersInFlight.add(intendedNanos);
+                }
+                if (command == 3) {
+                    reconnect();
+                    return;
+                }
+                if (rate <= 0 && running) {
+                    if (thinkMillis > 0) {
+                        scheduler.schedule(this::next, thinkMillis, TimeUnit.MILLISECONDS);
+                    } else {
+                        next();
+                    }
+                }
+            });
+        }
+
+        //'READY ...' doesnt say which order finished, and with batching or a policy that reorders cups it isnt always the oldest -
+        //so every order still outstanding is counted up to this READY, the first one after it was placed (a lower bound, see the README)
+        void onPush(String push) {
+            if (push.startsWith("READY")) {
+                long now = System.nanoTime();
+                Long sent;
+                while ((sent = ordersInFlight.poll()) != null) {
+                    orderToReady.record((now - sent) / 1000);
+                }
+            }
+        }
+
+        //'exit' closes the connection, so walk back in with a new one
+        void reconnect() {
+            reconnecting = true;
+            reconnects.execute(() -> {
+                try {
+                    client.close();
+                    connect();
+                } catch (IOException e) {
+                    System.out.println("Reconnect failed for " + name + ": " + e.getMessage());
+                } finally {
+                    reconnecting = false;
+                    if (rate <= 0) {
+                        next();
+                    }
+                }
+            });
+        }
+
+        void close() {
+            try {
+                if (client != null) {
+                    client.close();
+                }
+            } catch (IOException e) {
+                //closing anyway
+            }
+        }
+    }
+}
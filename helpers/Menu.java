@@ -0,0 +1,134 @@
+package helpers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+//what the cafe sells - each drink has a name, any aliases customers might type, how long it brews and which kind of machine brews it
+//the index of an item is its slot in the per-customer counters, so the menu has to be set up before the barista opens
+public class Menu {
+    public static final long DEFAULT_BREW_MILLIS = 30000;
+
+    private final List<Item> items = new ArrayList<>();
+
+    //brew times can be changed per drink with -Dcafe.teaBrewMillis / -Dcafe.coffeeBrewMillis
+    public static Menu standard() {
+        return new Menu()
+                .add("Tea", "tea", Long.getLong("cafe.teaBrewMillis", DEFAULT_BREW_MILLIS), "teas")
+                .add("Coffee", "coffee", Long.getLong("cafe.coffeeBrewMillis", DEFAULT_BREW_MILLIS), "coffees");
+    }
+
+    //the original cafe: tea and coffee, each on their own machines
+    public static Menu standard(long brewMillis) {
+        return new Menu()
+                .add("Tea", "tea", brewMillis, "teas")
+                .add("Coffee", "coffee", brewMillis, "coffees");
+    }
+
+    public Menu add(String name, String machine, long brewMillis, String... aliases) {
+        if (lookup(name, 0, name.length()) != null) {
+            throw new IllegalArgumentException(name + " is already on the menu");
+        }
+        items.add(new Item(items.size(), name, machine, brewMillis, aliases));
+        return this;
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    public Item get(int index) {
+        return items.get(index);
+    }
+
+    public List<Item> items() {
+        return Collections.unmodifiableList(items);
+    }
+
+    //machine types in menu order, each appears once even if several drinks share it
+    public List<String> machines() {
+        Set<String> machines = new LinkedHashSet<>();
+        for (Item item : items) {
+            machines.add(item.machine);
+        }
+        return new ArrayList<>(machines);
+    }
+
+    //finds the item named by text[start, end) without copying it out - case and runs of spaces dont matter. null if its not on the menu
+    public Item lookup(CharSequence text, int start, int end) {
+        for (Item item : items) {
+            if (item.matches(text, start, end)) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    public static final class Item {
+        private final int index;
+        private final String name;
+        private final String machine;
+        private final long brewMillis;
+        private final String[] aliases;
+
+        private Item(int index, String name, String machine, long brewMillis, String[] aliases) {
+            this.index = index;
+            this.name = name;
+            this.machine = machine;
+            this.brewMillis = brewMillis;
+            this.aliases = aliases.clone();
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getMachine() {
+            return machine;
+        }
+
+        public long getBrewMillis() {
+            return brewMillis;
+        }
+
+        boolean matches(CharSequence text, int start, int end) {
+            if (sameWords(name, text, start, end)) {
+                return true;
+            }
+            for (String alias : aliases) {
+                if (sameWords(alias, text, start, end)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean sameWords(String word, CharSequence text, int start, int end) {
+            int i = 0;
+            int j = start;
+            while (i < word.length() && j < end) {
+                char a = word.charAt(i);
+                char b = text.charAt(j);
+                if (a == ' ' && Character.isWhitespace(b)) {
+                    i++;
+                    while (j < end && Character.isWhitespace(text.charAt(j))) {
+                        j++;
+                    }
+                    continue;
+                }
+                if (Character.toLowerCase(a) != Character.toLowerCase(b)) {
+                    return false;
+                }
+                i++;
+                j++;
+            }
+            return i == word.length() && j == end;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package helpers;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+//tiny http endpoint for scraping the metrics - GET /metrics returns CafeMetrics.toText(), only listens on localhost
+//GET /snapshot?top=10 streams a CafeSnapshot of every customer as json, for dashboards and end of day reconciliation
+//turned on with -Dcafe.metrics.port=9100, nothing listens otherwise
+public class MetricsServer {
+    private final HttpServer server;
+
+    public MetricsServer(CafeMetrics metrics, int port) throws IOException {
+        this(metrics, port, null);
+    }
+
+    public MetricsServer(CafeMetrics metrics, int port, Supplier<CafeSnapshot> snapshots) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 16);
+        server.createContext("/metrics", exchange -> reply(exchange, metrics));
+        if (snapshots != null) {
+            server.createContext("/snapshot", exchange -> replySnapshot(exchange, snapshots));
+        }
+        server.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    public void start() {
+        server.start();
+        System.out.println("Metrics available on http://localhost:" + server.getAddress().getPort() + "/metrics");
+        JsonLogger.log("INFO", "Metrics endpoint started on port " + server.getAddress().getPort());
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private static void reply(HttpExchange exchange, CafeMetrics metrics) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = metrics.toText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    //chunked, so the export goes out as it is written instead of being built up first
+    private static void replySnapshot(HttpExchange exchange, Supplier<CafeSnapshot> snapshots) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            int top = 10;
+            String query = exchange.getRequestURI().getQuery();
+            if (query != null && query.startsWith("top=")) {
+                try {
+                    top = Integer.parseInt(query.substring(4));
+                } catch (NumberFormatException e) {
+                    exchange.sendResponseHeaders(400, -1);
+                    return;
+                }
+            }
+            CafeSnapshot snapshot = snapshots.get();
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, 0);
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 64 * 1024)) {
+                snapshot.writeJson(out, top);
+            }
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package helpers;
+
+import Cafe3Test.Barista;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//single threaded selector loop - every customer is just a SocketChannel + a few bytes of half read line, so idle customers cost no threads at all
+//the commands themselves are short (the brewing happens elsewhere) so they run straight on the selector thread
+//connections that send nothing for ClientHandler.IDLE_TIMEOUT_MILLIS are swept up by the same loop, a second or so late at most
+//replies that promise an order was placed or collected wait for their journal record to be durable, but not on this thread - they sit at the
+//head of the connection's outbound queue (with everything after them behind) until the journal writer says its batch is on disk
+public class NioServer {
+    private static final int MAX_LINE_LENGTH = 8192; //anything longer than this isnt a cafe command, drop the connection
+    private static final long SWEEP_MILLIS = Math.max(1, Math.min(1000, ClientHandler.IDLE_TIMEOUT_MILLIS / 4));
+
+    private final Barista barista;
+    private final int port;
+    private final Selector selector;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(16 * 1024); //shared, only the selector thread reads
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>(); //connections that other threads wrote to
+    private final List<Connection> waitingForJournal = new ArrayList<>(); //selector thread only, replies held back until their record is saved
+    private volatile boolean journalWritten = false;
+
+    public NioServer(Barista barista, int port) throws IOException {
+        this.barista = barista;
+        this.port = port;
+        this.selector = Selector.open();
+    }
+
+    public void serve() throws IOException {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port), 1024);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            OrderJournal journal = barista.getJournal();
+            if (journal != null) {
+                journal.onDurable(() -> {
+                    journalWritten = true;
+                    selector.wakeup();
+                });
+            }
+
+            long lastSweep = System.currentTimeMillis();
+            while (true) {
+                if (ClientHandler.IDLE_TIMEOUT_MILLIS > 0) {
+                    selector.select(SWEEP_MILLIS);
+                    long now = System.currentTimeMillis();
+                    if (now - lastSweep >= SWEEP_MILLIS) {
+                        closeIdle(now);
+                        lastSweep = now;
+                    }
+                } else {
+                    selector.select();
+                }
+
+                //other threads (brewing notifications) cant touch interest ops safely, so they queue the connection and wake us up
+                Connection pending;
+                while ((pending = pendingWrites.poll()) != null) {
+                    if (pending.overflowed && pending.key.isValid()) {
+                        System.out.println("Closing customer connection, " + ClientHandler.MAX_QUEUED_PUSHES + " writes unread.");
+                        JsonLogger.log("ERROR", "Closed a connection with " + ClientHandler.MAX_QUEUED_PUSHES + " writes unread");
+                        pending.close();
+                    } else if (pending.key.isValid()) {
+                        pending.key.interestOps(pending.key.interestOps() | SelectionKey.OP_WRITE);
+                    }
+                }
+                //a batch reached the disk - held replies get another go, write() parks them again if theirs wasnt in it
+                if (journalWritten) {
+                    journalWritten = false;
+                    for (Connection waiting : waitingForJournal) {
+                        if (waiting.key.isValid()) {
+                            waiting.key.interestOps(waiting.key.interestOps() | SelectionKey.OP_WRITE);
+                        }
+                    }
+                    waitingForJournal.clear();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept(serverChannel);
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            read((Connection) key.attachment());
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write((Connection) key.attachment());
+                        }
+                    } catch (IOException e) {
+                        System.out.println("Error on customer connection: " + e.getMessage());
+                        JsonLogger.log("ERROR", "Error on customer connection " + e.getMessage());
+                        if (key.attachment() instanceof Connection) {
+                            ((Connection) key.attachment()).close();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void accept(ServerSocketChannel serverChannel) throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            if (!barista.admitConnection()) {
+                //the cafe is full - one line into the empty socket buffer and gone, it never gets a Connection
+                try (SocketChannel turnedAway = channel) {
+                    turnedAway.write(ByteBuffer.wrap(ClientHandler.CAFE_FULL));
+                } catch (IOException e) {
+                    //they went first
+                }
+                JsonLogger.log("ERROR", "Turned away a connection, the cafe is full");
+                continue;
+            }
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            System.out.println("New customer connected: " + channel.socket().getInetAddress());
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        }
+    }
+
+    private void closeIdle(long now) {
+        List<Connection> idle = new ArrayList<>();
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection && now - ((Connection) key.attachment()).lastRead > ClientHandler.IDLE_TIMEOUT_MILLIS) {
+                idle.add((Connection) key.attachment());
+            }
+        }
+        for (Connection connection : idle) {
+            System.out.println("Closing idle customer connection.");
+            JsonLogger.log("INFO", "Closed a connection idle for " + ClientHandler.IDLE_TIMEOUT_MILLIS + "ms");
+            connection.close();
+        }
+    }
+
+    private void read(Connection connection) throws IOException {
+        readBuffer.clear();
+        int read = connection.channel.read(readBuffer);
+        if (read < 0) {
+            connection.close();
+            return;
+        }
+        connection.lastRead = System.currentTimeMillis();
+        readBuffer.flip();
+        while (readBuffer.hasRemaining()) {
+            byte b = readBuffer.get();
+            if (b == '\n') {
+                String line = connection.takeLine();
+                if (!connection.handler.handleLine(line)) {
+                    connection.flushReplies();
+                    connection.closeAfterWrites();
+                    return;
+                }
+            } else if (!connection.append(b)) {
+                System.out.println("Dropping customer connection, line too long.");
+                JsonLogger.log("ERROR", "Dropped a connection that sent a line over " + MAX_LINE_LENGTH + " bytes");
+                connection.close();
+                return;
+            }
+        }
+        connection.flushReplies(); //replies to everything that came in this read go out as one buffer
+    }
+
+    private void write(Connection connection) throws IOException {
+        Outbound next;
+        while ((next = connection.outbound.peek()) != null) {
+            if (!next.saved()) {
+                //not on disk yet - stop asking for OP_WRITE until the journal writer finishes another batch
+                connection.key.interestOps(SelectionKey.OP_READ);
+                waitingForJournal.add(connection);
+                return;
+            }
+            connection.channel.write(next.bytes);
+            if (next.bytes.hasRemaining()) {
+                return; //socket buffer is full, keep OP_WRITE and carry on later
+            }
+            connection.outbound.poll();
+            connection.queued.decrementAndGet();
+        }
+        if (connection.closing) {
+            connection.close();
+        } else {
+            connection.key.interestOps(SelectionKey.OP_READ);
+            //a writer may have queued something between the last poll and clearing OP_WRITE
+            if (!connection.outbound.isEmpty()) {
+                connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    //bytes for the socket, and the journal record that has to be durable before they go (0 = none)
+    private final class Outbound {
+        private final ByteBuffer bytes;
+        private final long saveFirst;
+
+        Outbound(ByteBuffer bytes, long saveFirst) {
+            this.bytes = bytes;
+            this.saveFirst = saveFirst;
+        }
+
+        boolean saved() {
+            OrderJournal journal = barista.getJournal();
+            return saveFirst == 0 || journal == null || journal.isDurable(saveFirst);
+        }
+    }
+
+    private final class Connection {
+        private final SocketChannel channel;
+        private final Queue<Outbound> outbound = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queued = new AtomicInteger(); //outbound's size, without walking it
+        private volatile boolean overflowed = false; //the customer stopped reading, the selector closes the connection
+        private final ReplyWriter writer;
+        private final ClientHandler handler;
+        private SelectionKey key;
+        private byte[] line = new byte[0]; //grows only when the customer actually sends something
+        private int lineLength = 0;
+        private volatile boolean closing = false;
+        private long lastRead = System.currentTimeMillis(); //selector thread only
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.writer = new ReplyWriter(this::queueFlush);
+            this.handler = new ClientHandler(barista, writer);
+        }
+
+        boolean append(byte b) {
+            if (lineLength == MAX_LINE_LENGTH) {
+                return false;
+            }
+            if (lineLength == line.length) {
+                line = Arrays.copyOf(line, Math.max(64, line.length * 2));
+            }
+            line[lineLength++] = b;
+            return true;
+        }
+
+        String takeLine() {
+            int length = lineLength;
+            if (length > 0 && line[length - 1] == '\r') {
+                length--;
+            }
+            String result = new String(line, 0, length, StandardCharsets.UTF_8);
+            lineLength = 0;
+            if (line.length > 256) {
+                line = new byte[0]; //dont keep big buffers around for idle customers
+            }
+            return result;
+        }
+
+        //the replies from this read - held back behind whatever journal record they promised, see queueFlush
+        void flushReplies() {
+            writer.flush();
+        }
+
+        //each flush becomes one buffer on the outbound queue, behind the newest record a reply to this customer promised. it is read
+        //inside the flush, so it covers every reply in the buffer whichever thread flushes (a push from the brew clock too)
+        private void queueFlush(byte[] bytes, int length) {
+            enqueue(new Outbound(ByteBuffer.wrap(Arrays.copyOf(bytes, length)), handler.saveFirst()));
+        }
+
+        //pushes from the brew clock land here too - it never blocks them, a customer who doesnt read just gets closed
+        void enqueue(Outbound buffer) {
+            if (queued.incrementAndGet() > ClientHandler.MAX_QUEUED_PUSHES) {
+                queued.decrementAndGet();
+                overflowed = true;
+                pendingWrites.add(this);
+                selector.wakeup();
+                return;
+            }
+            outbound.add(buffer);
+            pendingWrites.add(this);
+            selector.wakeup();
+        }
+
+        void closeAfterWrites() {
+            closing = true;
+            pendingWrites.add(this);
+            selector.wakeup();
+        }
+
+        void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                //already gone
+            }
+            handler.connectionClosed(); //a customer who didnt say exit leaves now
+        }
+    }
+}
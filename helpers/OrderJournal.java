@@ -0,0 +1,615 @@
+package helpers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+//append-only binary journal of every change to the customers counters, so a restart can put the cafe back how it was
+//  placed    - an order went onto the machines (brewing += counts)
+//  brewed    - one cup went from brewing to the tray, journaled before the cup shows on the tray so a collect can never be journaled ahead of it
+//  collected - these cups left the tray (tray -= counts, not 'tray = 0'). a journal from before brewed went first can have a collected
+//              ahead of its brewed, with a crash in between too - cups collected off an empty tray come out of brewing, and a brewed
+//              with nothing left brewing is the late record of a cup that has gone already
+//  removed   - the customer left, anything of theirs still brewing is thrown away
+//records are keyed by the CustomerOrder id, so a new customer with the same name never gets an old customers cups
+//
+//callers hand records to one writer thread that writes everything queued up in one go and forces it once (group commit)
+//- with sync on, a caller waiting for its record shares that fsync with everyone else who came in meanwhile
+//the writer also keeps its own copy of the counters from the records it wrote, and every snapshotEvery records it writes that copy out as a
+//snapshot and starts a new journal file. recovery is the newest snapshot + one journal file, however long the cafe has been running
+//
+//files in the journal directory: snapshot-<gen>.bin = state before journal-<gen>.bin starts, older generations are deleted
+public class OrderJournal implements AutoCloseable {
+    private static final byte PLACED = 1;
+    private static final byte BREWED = 2;
+    private static final byte COLLECTED = 3;
+    private static final byte REMOVED = 4;
+
+    private static final int SNAPSHOT_MAGIC = 0xCAFE0001;
+    private static final int BATCH_BYTES = 64 * 1024;
+
+    private final Path directory;
+    private final int items;
+    private final boolean sync;
+    private final int snapshotEvery;
+
+    //group commit - producers add under the lock, the writer swaps the list out and writes it without holding the lock
+    private final Object lock = new Object();
+    private List<Record> pending = new ArrayList<>();
+    private long appended = 0; //sequence of the last record handed in, guarded by lock
+    private long durable = 0; //everything up to here is written (and forced with sync on), guarded by lock
+    private boolean writerWaiting = false;
+    private boolean closed = false;
+    private volatile boolean failed = false;
+    private volatile Runnable durableListener;
+
+    //writer thread only (and open() before it starts)
+    private final Map<Integer, SavedCustomer> shadow = new HashMap<>();
+    private final ByteBuffer batch = ByteBuffer.allocateDirect(BATCH_BYTES);
+    private final CRC32 crc = new CRC32();
+    private FileChannel channel;
+    private long generation;
+    private long recordsInGeneration = 0;
+    private int nextCustomerId = 0;
+
+    private final List<SavedCustomer> recovered;
+    private final long recoveredRecords;
+    private final long recoveryMillis;
+    private volatile long batches = 0;
+    private volatile long records = 0;
+
+    private final Thread writerThread;
+
+    private OrderJournal(Path directory, int items, boolean sync, int snapshotEvery) throws IOException {
+        this.directory = directory;
+        this.items = items;
+        this.sync = sync;
+        this.snapshotEvery = snapshotEvery;
+        Files.createDirectories(directory);
+
+        long started = System.nanoTime();
+        recoveredRecords = load();
+        recovered = Collections.unmodifiableList(new ArrayList<>(shadow.values()));
+        //start a fresh generation straight away - the recovered state becomes its snapshot, and any torn tail of the old journal is left behind
+        rotate();
+        recoveryMillis = (System.nanoTime() - started) / 1_000_000;
+
+        writerThread = new Thread(this::writeLoop, "order-journal-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    //items is the menu size, the counters are laid out like CustomerOrder's
+    public static OrderJournal open(Path directory, int items, boolean sync, int snapshotEvery) throws IOException {
+        return new OrderJournal(directory, items, sync, snapshotEvery);
+    }
+
+    //-Dcafe.journal.dir (cafe-journal), -Dcafe.journal.sync (true = placing and collecting wait for the fsync), -Dcafe.journal.snapshotEvery (100000 records)
+    public static OrderJournal fromSystemProperties(int items) throws IOException {
+        return open(Paths.get(System.getProperty("cafe.journal.dir", "cafe-journal")),
+                items,
+                Boolean.parseBoolean(System.getProperty("cafe.journal.sync", "true")),
+                Integer.getInteger("cafe.journal.snapshotEvery", 100_000));
+    }
+
+    //the customers as they were when the journal was opened
+    public List<SavedCustomer> recovered() {
+        return recovered;
+    }
+
+    public long getRecoveredRecords() {
+        return recoveredRecords;
+    }
+
+    public long getRecoveryMillis() {
+        return recoveryMillis;
+    }
+
+    //ids handed out after recovery have to be above every recovered one
+    public int getNextCustomerId() {
+        return nextCustomerId;
+    }
+
+    public long placed(int customerId, String customerName, int[] counts) {
+        return append(new Record(PLACED, customerId, customerName, counts.clone(), 0));
+    }
+
+    public long brewed(int customerId, int item) {
+        return append(new Record(BREWED, customerId, null, null, item));
+    }
+
+    public long collected(int customerId, int[] counts) {
+        return append(new Record(COLLECTED, customerId, null, counts, 0));
+    }
+
+    public long removed(int customerId) {
+        return append(new Record(REMOVED, customerId, null, null, 0));
+    }
+
+    private long append(Record record) {
+        synchronized (lock) {
+            if (closed || failed) {
+                return appended;
+            }
+            pending.add(record);
+            if (writerWaiting) {
+                lock.notifyAll();
+            }
+            return ++appended;
+        }
+    }
+
+    //sequence of the newest record handed in so far - once that is durable, so is everything handed in before it
+    public long lastAppended() {
+        synchronized (lock) {
+            return appended;
+        }
+    }
+
+    //true once the record with this sequence is on disk (always with sync off) - also true once the journal has failed or closed,
+    //nothing is going to get any more durable than it is then
+    public boolean isDurable(long sequence) {
+        if (!sync) {
+            return true;
+        }
+        synchronized (lock) {
+            return durable >= sequence || failed || closed;
+        }
+    }
+
+    //called on the writer thread after every batch it writes (and when it fails) - for callers that cant block in awaitDurable,
+    //like the nio selector, so they can check isDurable again. has to be quick, the next batch waits for it
+    public void onDurable(Runnable listener) {
+        durableListener = listener;
+    }
+
+    //blocks until the record with this sequence is on disk - returns straight away with sync off
+    public void awaitDurable(long sequence) {
+        if (!sync) {
+            return;
+        }
+        synchronized (lock) {
+            while (durable < sequence && !failed && !closed) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void writeLoop() {
+        List<Record> writing = new ArrayList<>();
+        try {
+            while (true) {
+                long last;
+                boolean stopping;
+                synchronized (lock) {
+                    while (pending.isEmpty() && !closed) {
+                        writerWaiting = true;
+                        lock.wait();
+                        writerWaiting = false;
+                    }
+                    List<Record> swap = pending;
+                    pending = writing;
+                    writing = swap;
+                    last = appended;
+                    stopping = closed && writing.isEmpty();
+                }
+                if (stopping) {
+                    return;
+                }
+                for (Record record : writing) {
+                    encode(record);
+                    apply(record);
+                }
+                flushBatch();
+                if (sync) {
+                    channel.force(false);
+                }
+                records += writing.size();
+                recordsInGeneration += writing.size();
+                batches++;
+                writing.clear();
+                synchronized (lock) {
+                    durable = last;
+                    lock.notifyAll();
+                }
+                tellListener();
+                if (recordsInGeneration >= snapshotEvery) {
+                    rotate();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.out.println("Order journal failed, orders are no longer being saved: " + e.getMessage());
+            JsonLogger.log("ERROR", "Order journal failed: " + e.getMessage());
+            failed = true;
+            synchronized (lock) {
+                lock.notifyAll(); //nobody waits forever on a journal that is gone
+            }
+            tellListener();
+        }
+    }
+
+    private void tellListener() {
+        Runnable listener = durableListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    //[int length][int crc of the body][body] - a torn write at the end fails the length or crc check and replay stops there
+    private void encode(Record record) throws IOException {
+        int bodyLength = 1 + 4 + (record.type == PLACED ? 2 + record.name.length() * 3 + 4 * items : record.type == COLLECTED ? 4 * items : record.type == BREWED ? 2 : 0);
+        if (batch.remaining() < 8 + bodyLength) {
+            flushBatch();
+        }
+        int start = batch.position();
+        batch.position(start + 8);
+        batch.put(record.type).putInt(record.customerId);
+        switch (record.type) {
+            case PLACED:
+                byte[] name = record.name.getBytes(StandardCharsets.UTF_8);
+                batch.putShort((short) name.length).put(name);
+                putCounts(record.counts);
+                break;
+            case COLLECTED:
+                putCounts(record.counts);
+                break;
+            case BREWED:
+                batch.putShort((short) record.item);
+                break;
+            default:
+                break;
+        }
+        int end = batch.position();
+        ByteBuffer body = batch.duplicate();
+        body.position(start + 8).limit(end);
+        crc.reset();
+        crc.update(body);
+        batch.putInt(start, end - start - 8).putInt(start + 4, (int) crc.getValue());
+    }
+
+    private void putCounts(int[] counts) {
+        for (int item = 0; item < items; item++) {
+            batch.putInt(item < counts.length ? counts[item] : 0);
+        }
+    }
+
+    private void flushBatch() throws IOException {
+        batch.flip();
+        while (batch.hasRemaining()) {
+            channel.write(batch);
+        }
+        batch.clear();
+    }
+
+    //same rules whether the record was just written or is being replayed
+    private void apply(Record record) {
+        SavedCustomer customer = shadow.get(record.customerId);
+        switch (record.type) {
+            case PLACED:
+                if (customer == null) {
+                    customer = new SavedCustomer(record.customerId, record.name, new int[items * 3]);
+                    shadow.put(record.customerId, customer);
+                    nextCustomerId = Math.max(nextCustomerId, record.customerId + 1);
+                }
+                for (int item = 0; item < items; item++) {
+                    customer.counts[items + item] += record.counts[item];
+                }
+                break;
+            case BREWED:
+                //cups of a customer who already left are thrown away
+                if (customer != null && customer.counts[items + record.item] > 0) {
+                    customer.counts[items + record.item]--;
+                    customer.counts[items * 2 + record.item]++;
+                }
+                break;
+            case COLLECTED:
+                if (customer != null) {
+                    for (int item = 0; item < items; item++) {
+                        int tray = customer.counts[items * 2 + item] - record.counts[item];
+                        if (tray < 0) {
+                            //collected before its brewed - it was brewed all the same, it must not go back on the machines
+                            customer.counts[items + item] = Math.max(0, customer.counts[items + item] + tray);
+                            tray = 0;
+                        }
+                        customer.counts[items * 2 + item] = tray;
+                    }
+                }
+                break;
+            case REMOVED:
+                shadow.remove(record.customerId);
+                break;
+            default:
+                break;
+        }
+    }
+
+    //newest readable snapshot, then every journal from that generation on - returns how many records were replayed
+    private long load() throws IOException {
+        TreeMap<Long, Path> snapshots = new TreeMap<>();
+        TreeMap<Long, Path> journals = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.startsWith("snapshot-") && name.endsWith(".bin")) {
+                    snapshots.put(Long.parseLong(name.substring(9, name.length() - 4)), file);
+                } else if (name.startsWith("journal-") && name.endsWith(".bin")) {
+                    journals.put(Long.parseLong(name.substring(8, name.length() - 4)), file);
+                }
+            }
+        }
+        boolean haveSnapshot = false;
+        for (Map.Entry<Long, Path> snapshot : snapshots.descendingMap().entrySet()) {
+            if (readSnapshot(snapshot.getValue())) {
+                generation = snapshot.getKey();
+                haveSnapshot = true;
+                break;
+            }
+            shadow.clear(); //half read, try the one before
+            nextCustomerId = 0;
+        }
+        if (!haveSnapshot) {
+            //every journal starts where its snapshot left off (the very first one on an empty snapshot) - replayed on nothing, its brewed
+            //and collected records would land on customers that arent there and the cafe would come back quietly wrong
+            if (!journals.isEmpty()) {
+                throw new IOException("No readable snapshot for " + journals.firstEntry().getValue() + ", cant restore the orders - move "
+                        + directory + " aside to start empty");
+            }
+            generation = 0;
+            return 0;
+        }
+        long replayed = 0;
+        long expected = generation;
+        for (Map.Entry<Long, Path> journal : journals.tailMap(generation).entrySet()) {
+            if (journal.getKey() != expected) { //same again - a journal after a gap doesnt start from what was replayed so far
+                throw new IOException("Order journal-" + expected + ".bin is missing before " + journal.getValue() + ", cant restore the orders");
+            }
+            replayed += replay(journal.getValue());
+            generation = journal.getKey();
+            expected = generation + 1;
+        }
+        return replayed;
+    }
+
+    private boolean readSnapshot(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                return false;
+            }
+            if (in.readInt() != items) {
+                throw new IOException("The menu changed size since " + file + " was written, cant restore the orders");
+            }
+            int nextId = in.readInt();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int id = in.readInt();
+                String name = in.readUTF();
+                int[] counts = new int[items * 3];
+                for (int c = 0; c < counts.length; c++) {
+                    counts[c] = in.readInt();
+                }
+                shadow.put(id, new SavedCustomer(id, name, counts));
+            }
+            nextCustomerId = Math.max(nextCustomerId, nextId);
+            return true;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    private long replay(Path file) throws IOException {
+        long replayed = 0;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BATCH_BYTES);
+            ByteBuffer body = ByteBuffer.allocate(BATCH_BYTES);
+            in.read(buffer);
+            buffer.flip();
+            while (true) {
+                if (buffer.remaining() < 8 && !refill(in, buffer, 8)) {
+                    return replayed;
+                }
+                int length = buffer.getInt();
+                int expectedCrc = buffer.getInt();
+                if (length < 5 || length > body.capacity() || (buffer.remaining() < length && !refill(in, buffer, length))) {
+                    return replayed; //torn or garbage tail, everything before it counts
+                }
+                body.clear();
+                body.put(buffer.array(), buffer.position(), length).flip();
+                buffer.position(buffer.position() + length);
+                crc.reset();
+                crc.update(body.array(), 0, length);
+                if ((int) crc.getValue() != expectedCrc) {
+                    return replayed;
+                }
+                apply(decode(body));
+                replayed++;
+            }
+        }
+    }
+
+    //moves what is left to the front and reads more, false if the file ends first
+    private static boolean refill(FileChannel in, ByteBuffer buffer, int needed) throws IOException {
+        buffer.compact();
+        while (buffer.position() < needed) {
+            if (in.read(buffer) < 0) {
+                buffer.flip();
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+    private Record decode(ByteBuffer body) {
+        byte type = body.get();
+        int customerId = body.getInt();
+        switch (type) {
+            case PLACED:
+                byte[] name = new byte[body.getShort()];
+                body.get(name);
+                return new Record(type, customerId, new String(name, StandardCharsets.UTF_8), getCounts(body), 0);
+            case COLLECTED:
+                return new Record(type, customerId, null, getCounts(body), 0);
+            case BREWED:
+                return new Record(type, customerId, null, null, body.getShort());
+            default:
+                return new Record(type, customerId, null, null, 0);
+        }
+    }
+
+    private int[] getCounts(ByteBuffer body) {
+        int[] counts = new int[items];
+        for (int item = 0; item < items; item++) {
+            counts[item] = body.getInt();
+        }
+        return counts;
+    }
+
+    //snapshot of the shadow counters as the next generation, then a new empty journal for it, then the old files go
+    private void rotate() throws IOException {
+        if (channel != null) {
+            flushBatch();
+            channel.force(false);
+            channel.close();
+        }
+        long next = generation + 1;
+        Path temp = directory.resolve("snapshot-" + next + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream data = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(out), BATCH_BYTES))) {
+            data.writeInt(SNAPSHOT_MAGIC);
+            data.writeInt(items);
+            data.writeInt(nextCustomerId);
+            data.writeInt(shadow.size());
+            for (SavedCustomer customer : shadow.values()) {
+                data.writeInt(customer.id);
+                data.writeUTF(customer.name);
+                for (int count : customer.counts) {
+                    data.writeInt(count);
+                }
+            }
+            data.flush();
+            out.force(true);
+        }
+        //the rename is the commit point - a crash before it leaves the old generation as it was
+        Files.move(temp, directory.resolve("snapshot-" + next + ".bin"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        channel = FileChannel.open(directory.resolve("journal-" + next + ".bin"), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        generation = next;
+        recordsInGeneration = 0;
+        deleteOlderThan(next);
+    }
+
+    private void deleteOlderThan(long keep) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "{snapshot,journal}-*.bin")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long fileGeneration = Long.parseLong(name.substring(name.indexOf('-') + 1, name.length() - 4));
+                if (fileGeneration < keep) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    //writes everything already handed in, then closes the file
+    @Override
+    public void close() {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            writerThread.join(5000);
+            if (writerThread.isAlive()) {
+                //stuck on a slow disk - the batch buffer and the channel are still the writer's, leave them to it
+                System.out.println("Order journal writer did not finish in time, the last records may not be saved.");
+                JsonLogger.log("ERROR", "Order journal writer did not finish within 5s of closing");
+                return;
+            }
+            flushBatch();
+            channel.force(false);
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.out.println("Error closing the order journal: " + e.getMessage());
+        }
+    }
+
+    //one customer as the journal last saw them - counts are waiting, brewing and tray like CustomerOrder.Snapshot
+    public static final class SavedCustomer {
+        private final int id;
+        private final String name;
+        private final int[] counts;
+
+        SavedCustomer(int id, String name, int[] counts) {
+            this.id = id;
+            this.name = name;
+            this.counts = counts;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getCustomerName() {
+            return name;
+        }
+
+        public int[] getCounts() {
+            return counts.clone();
+        }
+    }
+
+    private static final class Record {
+        private final byte type;
+        private final int customerId;
+        private final String name;
+        private final int[] counts;
+        private final int item;
+
+        Record(byte type, int customerId, String name, int[] counts, int item) {
+            this.type = type;
+            this.customerId = customerId;
+            this.name = name;
+            this.counts = counts;
+            this.item = item;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package helpers;
+
+//registered with the barista for one customer, so only that customers order finishing reaches them - pushed straight from the machine that finished the last cup
+public interface OrderListener {
+    void orderReady(String customerName);
+
+    //the estimate for their order moved by enough to be worth telling them, millis from now
+    default void readyEstimateChanged(String customerName, long estimateMillis) {
+    }
+}
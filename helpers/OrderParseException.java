@@ -0,0 +1,39 @@
+package helpers;
+
+//thrown by OrderParser when an order cant be understood - says what went wrong and where, so the customer can be told exactly
+public class OrderParseException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public enum Reason {
+        EMPTY_ORDER,
+        MISSING_ITEM,
+        UNKNOWN_ITEM,
+        BAD_QUANTITY,
+        UNEXPECTED_CHARACTER
+    }
+
+    private final Reason reason;
+    private final int position;
+    private final String token;
+
+    public OrderParseException(Reason reason, int position, String token, String message) {
+        super(message);
+        this.reason = reason;
+        this.position = position;
+        this.token = token;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    //character offset into the order details where the problem starts
+    public int getPosition() {
+        return position;
+    }
+
+    //the bit of the order that was wrong, empty if there wasnt one (e.g. nothing ordered)
+    public String getToken() {
+        return token;
+    }
+}
@@ -0,0 +1,152 @@
+package helpers;
+
+//reads order details like '2 tea and 1 coffee', '1 tea, 3 coffees' or 'coffee & tea' in one pass over the characters
+//no regex, no splitting, no lowercasing copies - items are looked up on the menu straight from the input
+//grammar: order = item (separator item)*, item = [quantity] name, separator = ',' | '&' | '+' | 'and' (as a whole word), a missing quantity means 1
+public class OrderParser {
+    private final Menu menu;
+
+    public OrderParser(Menu menu) {
+        this.menu = menu;
+    }
+
+    public Menu getMenu() {
+        return menu;
+    }
+
+    //adds each items quantity to counts[item index] - counts has to be menu.size() long
+    //if this throws, counts may hold part of the order and should be thrown away
+    public void parse(CharSequence input, int[] counts) throws OrderParseException {
+        int length = input.length();
+        int position = skipSpaces(input, 0, length);
+        if (position == length) {
+            throw new OrderParseException(OrderParseException.Reason.EMPTY_ORDER, 0, "", "nothing was ordered");
+        }
+
+        while (true) {
+            //quantity
+            int quantityStart = position;
+            long quantity = 0;
+            while (position < length && isDigit(input.charAt(position))) {
+                quantity = quantity * 10 + (input.charAt(position) - '0');
+                if (quantity > Integer.MAX_VALUE) {
+                    int digitsEnd = position;
+                    while (digitsEnd < length && isDigit(input.charAt(digitsEnd))) {
+                        digitsEnd++;
+                    }
+                    throw badQuantity(input, quantityStart, digitsEnd);
+                }
+                position++;
+            }
+            if (position == quantityStart) {
+                quantity = 1;
+            } else if (quantity == 0) {
+                throw badQuantity(input, quantityStart, position);
+            }
+            position = skipSpaces(input, position, length);
+
+            //item name - one or more words, ending at a separator, a number or the end
+            int nameStart = position;
+            int nameEnd = position;
+            while (position < length && Character.isLetter(input.charAt(position))) {
+                int wordStart = position;
+                while (position < length && isWordChar(input.charAt(position))) {
+                    position++;
+                }
+                if (isAnd(input, wordStart, position)) {
+                    position = wordStart;
+                    break;
+                }
+                nameEnd = position;
+                position = skipSpaces(input, position, length);
+            }
+            if (nameEnd == nameStart) {
+                if (position == length || isSeparatorStart(input, position, length)) {
+                    throw new OrderParseException(OrderParseException.Reason.MISSING_ITEM, position, "",
+                            "expected a drink at position " + position);
+                }
+                throw unexpected(input, position);
+            }
+
+            Menu.Item item = menu.lookup(input, nameStart, nameEnd);
+            if (item == null) {
+                String name = input.subSequence(nameStart, nameEnd).toString();
+                throw new OrderParseException(OrderParseException.Reason.UNKNOWN_ITEM, nameStart, name,
+                        "'" + name + "' is not on the menu");
+            }
+            if (counts[item.getIndex()] > Integer.MAX_VALUE - quantity) {
+                throw badQuantity(input, quantityStart, nameStart);
+            }
+            counts[item.getIndex()] += (int) quantity;
+
+            //separator, or the end
+            position = skipSpaces(input, position, length);
+            if (position == length) {
+                return;
+            }
+            char c = input.charAt(position);
+            if (c == ',' || c == '&' || c == '+') {
+                position = skipSpaces(input, position + 1, length);
+                int wordEnd = wordEnd(input, position, length);
+                if (isAnd(input, position, wordEnd)) { //'1 tea, and 1 coffee'
+                    position = wordEnd;
+                }
+            } else if (isAnd(input, position, wordEnd(input, position, length))) {
+                position += 3;
+            } else if (!isDigit(c)) { //'1 tea 2 coffee' is fine, anything else isnt
+                throw unexpected(input, position);
+            }
+            position = skipSpaces(input, position, length);
+            if (position == length) {
+                throw new OrderParseException(OrderParseException.Reason.MISSING_ITEM, position, "",
+                        "expected a drink after the last separator");
+            }
+        }
+    }
+
+    private static OrderParseException badQuantity(CharSequence input, int start, int end) {
+        String quantity = input.subSequence(start, end).toString().trim();
+        return new OrderParseException(OrderParseException.Reason.BAD_QUANTITY, start, quantity,
+                "'" + quantity + "' is not a valid quantity");
+    }
+
+    private static OrderParseException unexpected(CharSequence input, int position) {
+        String character = String.valueOf(input.charAt(position));
+        return new OrderParseException(OrderParseException.Reason.UNEXPECTED_CHARACTER, position, character,
+                "unexpected '" + character + "' at position " + position);
+    }
+
+    private static boolean isSeparatorStart(CharSequence input, int position, int length) {
+        char c = input.charAt(position);
+        return c == ',' || c == '&' || c == '+' || isAnd(input, position, wordEnd(input, position, length));
+    }
+
+    private static int skipSpaces(CharSequence input, int position, int length) {
+        while (position < length && Character.isWhitespace(input.charAt(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    private static int wordEnd(CharSequence input, int position, int length) {
+        while (position < length && isWordChar(input.charAt(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    private static boolean isAnd(CharSequence input, int start, int end) {
+        return end - start == 3
+                && Character.toLowerCase(input.charAt(start)) == 'a'
+                && Character.toLowerCase(input.charAt(start + 1)) == 'n'
+                && Character.toLowerCase(input.charAt(start + 2)) == 'd';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetter(c) || c == '\'' || c == '-';
+    }
+}
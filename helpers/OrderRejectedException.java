@@ -0,0 +1,30 @@
+package helpers;
+
+//thrown by Barista.placeOrder when the order was fine but the cafe wont take it on right now - nothing was queued, the customer can try again later
+public class OrderRejectedException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public enum Reason {
+        CUSTOMER_LIMIT, //this customer already has as many cups on the go as one customer may have
+        CAFE_LIMIT,     //the whole cafe has as many cups on the go as it takes
+        WAIT_TOO_LONG   //the order would wait longer than the cafe promises
+    }
+
+    private final Reason reason;
+    private final long estimateMillis;
+
+    public OrderRejectedException(Reason reason, long estimateMillis, String message) {
+        super(message);
+        this.reason = reason;
+        this.estimateMillis = estimateMillis;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    //how long the order would have taken to brew, -1 if it was turned down before getting that far
+    public long getEstimateMillis() {
+        return estimateMillis;
+    }
+}
@@ -0,0 +1,132 @@
+package helpers;
+
+import java.io.IOException;
+
+//everything a ClientHandler sends its customer goes through here - lines are put together as UTF-8 in one reused buffer and
+//flush hands the lot to the connection in one go. bytes that are already encoded (the cached order status) are copied in as they are,
+//so a status reply never becomes a String again on the way out
+//replies and pushes (order ready) come from different threads, each line is written whole under this writers lock
+public class ReplyWriter {
+    private static final int KEEP_BYTES = 16 * 1024; //a buffer that grew past this for one big flush is dropped afterwards
+    private static final byte[] OK = {' ', 'O', 'K', ' '};
+    private static final byte[] ERR = {' ', 'E', 'R', 'R', ' '};
+
+    //where flushed bytes go - the socket stream, or the nio connections outbound queue
+    public interface Sink {
+        void write(byte[] bytes, int length) throws IOException;
+    }
+
+    private final Sink sink;
+    private byte[] buffer = new byte[512];
+    private int length = 0;
+    private boolean failed = false; //like PrintWriter, a dead connection shows up on the next read instead of here
+
+    public ReplyWriter(Sink sink) {
+        this.sink = sink;
+    }
+
+    public synchronized void println(String line) {
+        append(line);
+        append((byte) '\n');
+    }
+
+    //'<id> OK <text>' / '<id> ERR <text>', or just the text when id is null (legacy customers)
+    public synchronized void reply(String id, boolean ok, String text) {
+        startReply(id, ok);
+        append(text);
+        append((byte) '\n');
+    }
+
+    //same as reply but the text is prefix + encoded, both already UTF-8
+    public synchronized void reply(String id, boolean ok, byte[] prefix, byte[] encoded) {
+        startReply(id, ok);
+        append(prefix);
+        append(encoded);
+        append((byte) '\n');
+    }
+
+    //same again, with the id the first idLength chars of idLine (null for no id) - a framed status poll is answered without
+    //cutting its id out of the request
+    public synchronized void reply(String idLine, int idLength, boolean ok, byte[] prefix, byte[] encoded) {
+        if (idLine != null) {
+            append(idLine, idLength);
+            append(ok ? OK : ERR);
+        }
+        append(prefix);
+        append(encoded);
+        append((byte) '\n');
+    }
+
+    public synchronized void flush() {
+        if (length == 0) {
+            return;
+        }
+        try {
+            if (!failed) {
+                sink.write(buffer, length);
+            }
+        } catch (IOException e) {
+            failed = true;
+        }
+        length = 0;
+        if (buffer.length > KEEP_BYTES) {
+            buffer = new byte[512];
+        }
+    }
+
+    private void startReply(String id, boolean ok) {
+        if (id != null) {
+            append(id);
+            append(ok ? OK : ERR);
+        }
+    }
+
+    private void append(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void append(byte b) {
+        ensure(1);
+        buffer[length++] = b;
+    }
+
+    private void append(String text) {
+        append(text, text.length());
+    }
+
+    //UTF-8 by hand, straight from the first end chars into the buffer
+    private void append(String text, int end) {
+        ensure(end * 3);
+        for (int i = 0; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                buffer[length++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[length++] = (byte) (0xc0 | c >> 6);
+                buffer[length++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                buffer[length++] = (byte) (0xf0 | codePoint >> 18);
+                buffer[length++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+                buffer[length++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                buffer[length++] = (byte) (0x80 | codePoint & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                buffer[length++] = '?'; //half a pair, same as String.getBytes would do
+            } else {
+                buffer[length++] = (byte) (0xe0 | c >> 12);
+                buffer[length++] = (byte) (0x80 | c >> 6 & 0x3f);
+                buffer[length++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+    }
+
+    private void ensure(int more) {
+        if (length + more > buffer.length) {
+            byte[] bigger = new byte[Math.max(buffer.length * 2, length + more)];
+            System.arraycopy(buffer, 0, bigger, 0, length);
+            buffer = bigger;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package helpers;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//real time brewing - a small scheduler pool fires each brew when its time is up, however many cups are brewing
+public class SystemBrewClock implements BrewClock {
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    public SystemBrewClock() {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    //a few threads rather than one, so one customer with a slow socket cant hold up everyone elses cups
+    public SystemBrewClock(int threads) {
+        AtomicInteger threadNumber = new AtomicInteger(0);
+        this.scheduler = new ScheduledThreadPoolExecutor(threads, task -> {
+            Thread thread = new Thread(task, "brew-clock-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.setRemoveOnCancelPolicy(true); //cancelled brews shouldnt sit in the queue until their time comes
+    }
+
+    @Override
+    public long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    @Override
+    public Timeout schedule(long delayMillis, Runnable task) {
+        ScheduledFuture<?> future = scheduler.schedule(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                //dont let one bad callback kill the scheduler thread for every other brew
+                System.out.println("Error in brew callback: " + e.getMessage());
+                JsonLogger.log("ERROR", "Error in brew callback " + e);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+        return () -> future.cancel(false);
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
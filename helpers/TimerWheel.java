@@ -0,0 +1,148 @@
+package helpers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//a hashed timer wheel for lots of timeouts that mostly get cancelled (customer sessions that come back before they expire):
+//adding and cancelling are O(1) and nothing is queued on the BrewClock per timeout - one tick every tickMillis walks the slot whose
+//time has come and runs what is due there. a timeout further away than one turn of the wheel just stays in its slot for another turn
+//timeouts fire up to one tick late, never early. the wheel only ticks while something is in it
+public class TimerWheel {
+    private final BrewClock clock;
+    private final long tickMillis;
+    private final Entry[] slots; //each slot is a doubly linked list, head entry or null - guarded by this
+    private long lastTick; //the last tick whose slot has been walked
+    private int size = 0;
+    private BrewClock.Timeout ticker; //null while the wheel is empty
+    private long tickerNumber = 0; //a tick that was cancelled but had already fired sees a newer number and does nothing
+
+    public TimerWheel(BrewClock clock, long tickMillis, int slotCount) {
+        if (tickMillis < 1 || slotCount < 1) {
+            throw new IllegalArgumentException("A timer wheel needs a tick of at least 1ms and at least one slot");
+        }
+        this.clock = clock;
+        this.tickMillis = tickMillis;
+        this.slots = new Entry[slotCount];
+        this.lastTick = clock.now() / tickMillis;
+    }
+
+    //runs task on the clock's thread once delayMillis have passed, unless cancelled first
+    public BrewClock.Timeout schedule(long delayMillis, Runnable task) {
+        Entry entry = new Entry(clock.now() + Math.max(0, delayMillis), task);
+        synchronized (this) {
+            if (size == 0) {
+                lastTick = Math.max(lastTick, clock.now() / tickMillis); //nothing to walk while it was empty, start from now
+            }
+            //the first tick at or after the deadline, but never one that has been walked already
+            long tick = Math.max(lastTick + 1, (entry.deadline + tickMillis - 1) / tickMillis);
+            link(entry, (int) (tick % slots.length));
+            size++;
+            if (ticker == null) {
+                scheduleTick();
+            }
+        }
+        return entry;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private void link(Entry entry, int slot) {
+        entry.slot = slot;
+        entry.next = slots[slot];
+        if (entry.next != null) {
+            entry.next.previous = entry;
+        }
+        slots[slot] = entry;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.previous != null) {
+            entry.previous.next = entry.next;
+        } else {
+            slots[entry.slot] = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.previous = entry.previous;
+        }
+        entry.next = null;
+        entry.previous = null;
+        entry.slot = -1;
+        size--;
+    }
+
+    private synchronized boolean cancel(Entry entry) {
+        if (entry.slot < 0) {
+            return false; //already ran or cancelled
+        }
+        unlink(entry);
+        if (size == 0 && ticker != null) {
+            ticker.cancel();
+            ticker = null;
+            tickerNumber++;
+        }
+        return true;
+    }
+
+    //walks every slot whose tick has come since the last one - all of them at most once if the clock jumped a long way
+    private void tick(long number) {
+        List<Runnable> due = new ArrayList<>();
+        synchronized (this) {
+            if (number != tickerNumber) {
+                return;
+            }
+            long now = clock.now();
+            long target = now / tickMillis;
+            for (long tick = lastTick + 1, walked = 0; tick <= target && walked < slots.length; tick++, walked++) {
+                Entry entry = slots[(int) (tick % slots.length)];
+                while (entry != null) {
+                    Entry next = entry.next;
+                    if (entry.deadline <= now) {
+                        unlink(entry);
+                        due.add(entry.task);
+                    }
+                    entry = next;
+                }
+            }
+            lastTick = Math.max(lastTick, target);
+            ticker = null;
+            if (size > 0) {
+                scheduleTick();
+            }
+        }
+        for (Runnable task : due) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                //one bad timeout shouldnt stop the rest of this tick
+                System.out.println("Error in timer wheel task: " + e.getMessage());
+                JsonLogger.log("ERROR", "Error in timer wheel task " + e);
+            }
+        }
+    }
+
+    //next tick on the tick boundary, so every timeout fires within one tick of its deadline
+    private void scheduleTick() {
+        long number = ++tickerNumber;
+        ticker = clock.schedule(Math.max(0, (lastTick + 1) * tickMillis - clock.now()), () -> tick(number));
+    }
+
+    private final class Entry implements BrewClock.Timeout {
+        private final long deadline;
+        private final Runnable task;
+        private int slot = -1; //-1 once it ran or was cancelled, guarded by the wheel
+        private Entry next;
+        private Entry previous;
+
+        Entry(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        @Override
+        public boolean cancel() {
+            return TimerWheel.this.cancel(this);
+        }
+    }
+}
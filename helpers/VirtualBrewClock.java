@@ -0,0 +1,121 @@
+package helpers;
+
+import java.util.PriorityQueue;
+
+//time only moves when advance/runUntilIdle is called, and callbacks run on the calling thread in due-time order
+//so a 30 second brew costs nothing to simulate, and runs are repeatable
+public class VirtualBrewClock implements BrewClock {
+    private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+    private long now = 0;
+    private long nextSequence = 0; //tasks due at the same time run in the order they were scheduled
+
+    @Override
+    public synchronized long now() {
+        return now;
+    }
+
+    @Override
+    public synchronized Timeout schedule(long delayMillis, Runnable runnable) {
+        Task task = new Task(now + Math.max(0, delayMillis), nextSequence++, runnable);
+        tasks.add(task);
+        return task;
+    }
+
+    //moves time forward by millis, running everything that comes due on the way (including tasks those tasks schedule)
+    public void advance(long millis) {
+        long target;
+        synchronized (this) {
+            target = now + millis;
+        }
+        advanceTo(target);
+    }
+
+    public void advanceTo(long target) {
+        while (true) {
+            Task task;
+            synchronized (this) {
+                task = tasks.peek();
+                if (task == null || task.due > target) {
+                    now = Math.max(now, target);
+                    return;
+                }
+                tasks.poll();
+                now = task.due;
+            }
+            task.runIfNotCancelled();
+        }
+    }
+
+    //jumps from one due task to the next until nothing is left - returns how many ran
+    public long runUntilIdle() {
+        long ran = 0;
+        while (true) {
+            Task task;
+            synchronized (this) {
+                task = tasks.poll();
+                if (task == null) {
+                    return ran;
+                }
+                now = Math.max(now, task.due);
+            }
+            if (task.runIfNotCancelled()) {
+                ran++;
+            }
+        }
+    }
+
+    //when the next task is due, or -1 if nothing is scheduled
+    public synchronized long nextDue() {
+        Task task = tasks.peek();
+        return task == null ? -1 : task.due;
+    }
+
+    public synchronized int pending() {
+        return tasks.size();
+    }
+
+    private final class Task implements Timeout, Comparable<Task> {
+        private final long due;
+        private final long sequence;
+        private final Runnable runnable;
+        private boolean cancelled = false;
+        private boolean ran = false;
+
+        Task(long due, long sequence, Runnable runnable) {
+            this.due = due;
+            this.sequence = sequence;
+            this.runnable = runnable;
+        }
+
+        boolean runIfNotCancelled() {
+            synchronized (VirtualBrewClock.this) {
+                if (cancelled) {
+                    return false;
+                }
+                ran = true;
+            }
+            runnable.run();
+            return true;
+        }
+
+        @Override
+        public boolean cancel() {
+            synchronized (VirtualBrewClock.this) {
+                if (ran || cancelled) {
+                    return false;
+                }
+                cancelled = true;
+                tasks.remove(this);
+                return true;
+            }
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (due != other.due) {
+                return Long.compare(due, other.due);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package helpers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+//lets barista nodes borrow each others machines - a node with idle machines asks the other nodes for cups they have queued,
+//brews them here and says when they are done, then the owning node puts them on its customers tray. orders, status and collect
+//never leave the node that owns the customer, only the brewing moves
+//peer protocol, one line each over a connection from the node doing the brewing (thief) to the node with the queue (owner):
+//  thief -> owner: STEAL <machineType> <max>
+//  owner -> thief: CUPS <id>:<menu index> <id>:<menu index> ...   (nothing after CUPS if there is nothing spare)
+//  thief -> owner: DONE <id>
+//cups are named by menu index, so every node has to run the same menu. if the thief goes away or takes too long the owner brews the cups itself
+public class WorkStealing {
+    private static final int MAX_LINE = 64 * 1024;
+    private static final long GRACE_MILLIS = 5000;
+    private static final int REPLY_TIMEOUT_MILLIS = 2000; //an owner that takes longer than this to answer STEAL gets dropped, it keeps its cups
+
+    private final Menu menu;
+    private final Map<String, BrewingMachines> machines = new HashMap<>();
+    private final BrewClock clock;
+    private final int peerPort;
+    private final long stealMillis;
+    private final List<Peer> peers = new ArrayList<>();
+
+    private final ConcurrentHashMap<Long, BrewingMachines.Brew> givenAway = new ConcurrentHashMap<>(); //cups another node is brewing for us
+    private final AtomicLong nextCupId = new AtomicLong(1);
+    private final LongAdder cupsStolen = new LongAdder();
+    private final LongAdder cupsGivenAway = new LongAdder();
+    private final LongAdder cupsTakenBack = new LongAdder();
+    private final ScheduledExecutorService stealer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "work-stealer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private int nextPeer = 0; //stealer thread only, so every peer gets asked first in turn
+
+    //peers are the other nodes' peer ports, host:port
+    public WorkStealing(Menu menu, Collection<BrewingMachines> machines, BrewClock clock, CafeMetrics metrics, int peerPort, List<String> peers, long stealMillis) {
+        this.menu = menu;
+        for (BrewingMachines machine : machines) {
+            this.machines.put(machine.getMachineType(), machine);
+        }
+        this.clock = clock;
+        this.peerPort = peerPort;
+        this.stealMillis = stealMillis;
+        for (String peer : peers) {
+            this.peers.add(new Peer(peer));
+        }
+        metrics.addCollector(values -> {
+            values.put("stealing.cupsStolen", cupsStolen.sum());
+            values.put("stealing.cupsGivenAway", cupsGivenAway.sum());
+            values.put("stealing.cupsTakenBack", cupsTakenBack.sum());
+            values.put("stealing.givenAwayNow", givenAway.size());
+        });
+    }
+
+    //-Dcafe.peers=host:port,... are the other nodes' -Dcafe.peerPort, -Dcafe.stealMillis is how often idle machines go looking (200)
+    public static List<String> peersFromSystemProperties() {
+        List<String> peers = new ArrayList<>();
+        for (String peer : System.getProperty("cafe.peers", "").split(",")) {
+            if (!peer.isBlank()) {
+                peers.add(peer.trim());
+            }
+        }
+        return peers;
+    }
+
+    public void start() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(peerPort);
+        Thread acceptor = new Thread(() -> acceptPeers(serverSocket), "peer-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        stealer.scheduleWithFixedDelay(this::stealRound, stealMillis, stealMillis, TimeUnit.MILLISECONDS);
+        System.out.println("Sharing brewing with " + peers.size() + " other nodes, peer port " + peerPort);
+        JsonLogger.log("INFO", "Work stealing started on peer port " + peerPort + " with peers " + peers);
+    }
+
+    // ---- owner side: other nodes asking for our queued cups ----
+
+    private void acceptPeers(ServerSocket serverSocket) {
+        try (serverSocket) {
+            while (true) {
+                Socket socket = serverSocket.accept();
+                Thread thread = new Thread(() -> servePeer(socket), "peer-" + socket.getRemoteSocketAddress());
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } catch (IOException e) {
+            System.out.println("Peer port closed: " + e.getMessage());
+        }
+    }
+
+    private void servePeer(Socket socket) {
+        Set<Long> outstanding = ConcurrentHashMap.newKeySet(); //cups this peer has and hasnt finished
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            LineReader reader = new LineReader(socket.getInputStream(), MAX_LINE);
+            OutputStream out = socket.getOutputStream();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.trim().split(" ");
+                if (parts[0].equals("STEAL") && parts.length == 3) {
+                    out.write(giveAway(parts[1], Integer.parseInt(parts[2]), outstanding).getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                } else if (parts[0].equals("DONE") && parts.length == 2) {
+                    long id = Long.parseLong(parts[1]);
+                    outstanding.remove(id);
+                    BrewingMachines.Brew brew = givenAway.remove(id);
+                    if (brew != null) {
+                        machines.get(brew.getItem().getMachine()).brewedElsewhere(brew);
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Peer connection lost: " + e.getMessage());
+        } finally {
+            //whatever they still had gets brewed here instead
+            for (Long id : outstanding) {
+                takeBack(id);
+            }
+        }
+    }
+
+    private String giveAway(String machineType, int max, Set<Long> outstanding) {
+        StringBuilder reply = new StringBuilder("CUPS");
+        BrewingMachines machine = machines.get(machineType);
+        if (machine == null) {
+            return reply.append('\n').toString();
+        }
+        for (BrewingMachines.Brew brew : machine.giveAway(max)) {
+            long id = nextCupId.getAndIncrement();
+            givenAway.put(id, brew);
+            outstanding.add(id);
+            cupsGivenAway.increment();
+            //if the cup hasnt come back in twice its brew time something is wrong over there
+            clock.schedule(brew.getItem().getBrewMillis() * 2 + GRACE_MILLIS, () -> takeBack(id));
+            reply.append(' ').append(id).append(':').append(brew.getItem().getIndex());
+        }
+        return reply.append('\n').toString();
+    }
+
+    private void takeBack(long id) {
+        BrewingMachines.Brew brew = givenAway.remove(id);
+        if (brew != null) {
+            cupsTakenBack.increment();
+            machines.get(brew.getItem().getMachine()).takeBack(brew);
+        }
+    }
+
+    // ---- thief side: our idle machines asking the others ----
+
+    private void stealRound() {
+        try {
+            for (Peer peer : peers) {
+                peer.sendDone();
+            }
+            for (BrewingMachines machine : machines.values()) {
+                int wanted = machine.idleMachines() * machine.getBatchSize();
+                for (int i = 0; i < peers.size() && wanted > 0; i++) {
+                    Peer peer = peers.get((nextPeer + i) % peers.size());
+                    wanted -= peer.steal(machine, wanted);
+                }
+            }
+            nextPeer++;
+        } catch (RuntimeException e) {
+            System.out.println("Work stealing round failed: " + e.getMessage());
+        }
+    }
+
+    //one connection to another node's peer port, opened when first needed and again after it drops
+    //only the stealer thread touches the connection - brews finishing on the brew clock just queue their DONE for it,
+    //so a slow or dead peer holds up the next steal round and never the machines
+    private final class Peer {
+        private final String address;
+        private final Queue<Long> finished = new ConcurrentLinkedQueue<>(); //cups brewed here that the owner hasnt been told about
+        private Socket socket;
+        private LineReader reader;
+        private OutputStream out;
+
+        Peer(String address) {
+            this.address = address;
+        }
+
+        //asks for up to max cups, brews whatever comes back - returns how many
+        int steal(BrewingMachines machine, int max) {
+            try {
+                connect();
+                out.write(("STEAL " + machine.getMachineType() + " " + max + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                String reply = reader.readLine(); //at most REPLY_TIMEOUT_MILLIS
+                if (reply == null) {
+                    throw new IOException("peer closed the connection");
+                }
+                String[] cups = reply.trim().split(" ");
+                for (int i = 1; i < cups.length; i++) {
+                    int colon = cups[i].indexOf(':');
+                    long id = Long.parseLong(cups[i].substring(0, colon));
+                    Menu.Item item = menu.get(Integer.parseInt(cups[i].substring(colon + 1)));
+                    cupsStolen.increment();
+                    machine.brew("node " + address, item, (int) id, () -> done(id));
+                }
+                return cups.length - 1;
+            } catch (IOException e) {
+                disconnect();
+                return 0; //try again next round
+            }
+        }
+
+        //brew clock thread - the stealer sends it as soon as it is free
+        private void done(long id) {
+            finished.add(id);
+            stealer.execute(this::sendDone);
+        }
+
+        //stealer thread, every DONE queued so far in one write
+        private void sendDone() {
+            if (finished.isEmpty()) {
+                return;
+            }
+            StringBuilder lines = new StringBuilder();
+            Long id;
+            while ((id = finished.poll()) != null) {
+                lines.append("DONE ").append(id).append('\n');
+            }
+            try {
+                connect();
+                out.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            } catch (IOException e) {
+                disconnect(); //the owner takes the cups back when it notices we went away
+            }
+        }
+
+        private void connect() throws IOException {
+            if (socket == null) {
+                int colon = address.lastIndexOf(':');
+                Socket opened = new Socket();
+                opened.connect(new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1))), 1000);
+                opened.setTcpNoDelay(true);
+                opened.setSoTimeout(REPLY_TIMEOUT_MILLIS);
+                socket = opened;
+                reader = new LineReader(opened.getInputStream(), MAX_LINE);
+                out = opened.getOutputStream();
+            }
+        }
+
+        private void disconnect() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    //going anyway
+                }
+                socket = null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return address;
+        }
+    }
+}
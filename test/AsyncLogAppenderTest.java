@@ -0,0 +1,34 @@
+package test;
+
+import helpers.AsyncLogAppender;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class AsyncLogAppenderTest {
+
+    //every write to /dev/full fails - once the writer is gone a BLOCK caller used to wait for room in the ring for ever
+    @Test
+    void appendStillReturnsAfterTheWriterFails() throws Exception {
+        Path full = Paths.get("/dev/full");
+        assumeTrue(Files.isWritable(full), "needs /dev/full");
+        AsyncLogAppender appender = new AsyncLogAppender(full, 8, 0, AsyncLogAppender.Durability.FLUSH, AsyncLogAppender.Overflow.BLOCK);
+        try {
+            assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+                for (int i = 0; i < 10_000; i++) {
+                    appender.append("entry " + i);
+                }
+            });
+            assertTrue(appender.getDropped() > 0);
+        } finally {
+            appender.close();
+        }
+    }
+}
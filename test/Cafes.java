@@ -0,0 +1,20 @@
+package test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+
+//what the tests share, like bench.Bench for the benchmarks: cafe settings that keep the tests log lines out of the real
+//server_logs.json, and the barista's event printing muted
+final class Cafes {
+    private Cafes() {
+    }
+
+    //call from a @BeforeAll before the first Barista
+    static void properties() throws IOException {
+        System.setProperty("cafe.log.file", Files.createTempFile("test_logs", ".json").toString());
+        System.setProperty("cafe.log.overflow", "DROP");
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+}
@@ -0,0 +1,150 @@
+package test;
+
+import Cafe3Test.Barista;
+import helpers.ClientHandler;
+import helpers.Menu;
+import helpers.OrderJournal;
+import helpers.ReplyWriter;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ClientHandlerTest {
+
+    @BeforeAll
+    static void cafe() throws IOException {
+        Cafes.properties();
+    }
+
+    //two counts near Integer.MAX_VALUE used to add up to a negative total that got past both cup limits
+    @Test
+    void hugeOrderIsTurnedDown() {
+        Barista barista = new Barista(Menu.standard(60_000));
+        StringBuilder sent = new StringBuilder();
+        ReplyWriter writer = new ReplyWriter((bytes, length) -> sent.append(new String(bytes, 0, length, StandardCharsets.UTF_8)));
+        ClientHandler handler = new ClientHandler(barista, writer);
+
+        handler.handleLine("CAFE/1 Bob");
+        handler.handleLine("1 order 2147483647 tea and 2147483647 coffee");
+        handler.handleLine("2 order 2147483647 tea");
+        handler.handleLine("3 order 1 tea"); //nothing was reserved by the two above
+        writer.flush();
+
+        String replies = sent.toString();
+        assertTrue(replies.contains("\n1 ERR Order not taken"), replies);
+        assertTrue(replies.contains("\n2 ERR Order not taken"), replies);
+        assertTrue(replies.contains("\n3 OK your order has been placed"), replies);
+    }
+
+    //blocking mode - a READY push flushes the writer from the push sender while the handler thread waits for the journal,
+    //the 'placed' reply in the buffer must not go out with it
+    @Test
+    void pushWaitsForTheJournalLikeTheReplyItCarries(@TempDir Path dir) throws Exception {
+        OrderJournal journal = OrderJournal.open(dir, 2, true, 100_000);
+        Barista barista = new Barista(Menu.standard(0)); //brew time 0, READY is pushed as soon as the cup is on a machine
+        barista.recover(journal);
+        CountDownLatch release = stallJournal(journal, barista);
+        ExecutorService pushSender = Executors.newCachedThreadPool();
+        try (ServerSocket server = new ServerSocket(0);
+             Socket client = new Socket("localhost", server.getLocalPort());
+             Socket accepted = server.accept()) {
+            new Thread(new ClientHandler(accepted, barista, pushSender)).start();
+            OutputStream out = client.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+            client.setSoTimeout(5_000);
+            out.write("CAFE/1 Bob\n".getBytes(StandardCharsets.UTF_8));
+            assertTrue(in.readLine().startsWith("CAFE/1 OK session"));
+            out.write("1 order 1 tea\n".getBytes(StandardCharsets.UTF_8));
+
+            //the journal is stuck, so neither the reply nor the push carrying it may arrive
+            client.setSoTimeout(500);
+            assertThrows(SocketTimeoutException.class, in::readLine);
+
+            release.countDown();
+            client.setSoTimeout(5_000);
+            boolean placed = false;
+            boolean ready = false;
+            while (!placed || !ready) {
+                String line = in.readLine();
+                placed |= line.startsWith("1 OK your order has been placed");
+                ready |= line.startsWith("* READY");
+            }
+        } finally {
+            release.countDown();
+            pushSender.shutdown();
+            journal.close();
+        }
+    }
+
+    //nio mode - the push runs on the brew clock and flushes the writer mid read, whatever it flushes has to be tagged with
+    //the record the reply in it promised so NioServer holds it back
+    @Test
+    void pushFlushCarriesTheRecordItsRepliesPromised(@TempDir Path dir) throws Exception {
+        OrderJournal journal = OrderJournal.open(dir, 2, true, 100_000);
+        Barista barista = new Barista(Menu.standard(0));
+        barista.recover(journal);
+        CountDownLatch release = stallJournal(journal, barista);
+        List<String> unsaved = new CopyOnWriteArrayList<>(); //flushes that would have gone out before their record was saved
+        CountDownLatch pushed = new CountDownLatch(1);
+        ClientHandler[] handler = new ClientHandler[1];
+        ReplyWriter writer = new ReplyWriter((bytes, length) -> {
+            String sent = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            long saveFirst = handler[0].saveFirst(); //what NioServer tags the buffer with
+            if (sent.contains("OK your order has been placed") && (saveFirst == 0 || journal.isDurable(saveFirst))) {
+                unsaved.add(sent);
+            }
+            if (sent.contains("* READY")) {
+                pushed.countDown();
+            }
+        });
+        handler[0] = new ClientHandler(barista, writer);
+        try {
+            handler[0].handleLine("CAFE/1 Bob");
+            writer.flush();
+            handler[0].handleLine("1 order 1 tea"); //no flush - the READY push does it
+            assertTrue(pushed.await(5, TimeUnit.SECONDS));
+            assertTrue(unsaved.isEmpty(), unsaved.toString());
+            assertFalse(journal.isDurable(handler[0].saveFirst()));
+        } finally {
+            release.countDown();
+            journal.close();
+        }
+    }
+
+    //holds the journal writer after its first batch until the latch is counted down, everything appended meanwhile stays unsaved
+    private static CountDownLatch stallJournal(OrderJournal journal, Barista barista) throws Exception {
+        CountDownLatch stalled = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        journal.onDurable(() -> {
+            stalled.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        barista.placeOrder("Alice", "1 tea");
+        assertTrue(stalled.await(5, TimeUnit.SECONDS));
+        return release;
+    }
+}
@@ -0,0 +1,48 @@
+package test;
+
+import helpers.LatencyHistogram;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LatencyHistogramTest {
+
+    //each thread records into its own stripe, every read has to add them all up
+    @Test
+    void stripesAddUpAcrossThreads() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (long value = 1; value <= 10_000; value++) {
+                    histogram.record(value);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(80_000, histogram.getCount());
+        assertEquals(10_000, histogram.getMax());
+        assertEquals(5_000.5, histogram.getMean(), 0.001);
+        long median = histogram.valueAt(50);
+        assertTrue(Math.abs(median - 5_000) <= 5_000 * 0.016, "p50 " + median);
+        assertEquals(10_000, histogram.valueAt(100));
+
+        LatencyHistogram merged = new LatencyHistogram();
+        merged.add(histogram);
+        assertEquals(80_000, merged.getCount());
+        assertEquals(median, merged.valueAt(50));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.valueAt(99));
+    }
+}
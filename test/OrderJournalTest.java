@@ -0,0 +1,57 @@
+package test;
+
+import helpers.OrderJournal;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class OrderJournalTest {
+    private static final int ITEMS = 2; //tea and coffee
+
+    //a cup collected and the process gone before its brewed record was written - it must not come back as brewing and get made again
+    @Test
+    void collectedWithoutItsBrewedIsNotBrewedAgain(@TempDir Path dir) throws IOException {
+        try (OrderJournal journal = OrderJournal.open(dir, ITEMS, true, 100_000)) {
+            journal.placed(0, "Bob", new int[]{2, 0});
+            journal.brewed(0, 0);
+            journal.collected(0, new int[]{2, 0}); //the second tea was on the tray, its brewed never made it
+        }
+        assertArrayEquals(new int[]{0, 0, 0, 0, 0, 0}, reopen(dir));
+    }
+
+    //the same with the late brewed written after all
+    @Test
+    void lateBrewedAfterCollectedAddsNothing(@TempDir Path dir) throws IOException {
+        try (OrderJournal journal = OrderJournal.open(dir, ITEMS, true, 100_000)) {
+            journal.placed(0, "Bob", new int[]{1, 1});
+            journal.collected(0, new int[]{1, 0});
+            journal.brewed(0, 0);
+        }
+        //the coffee is still brewing, the tea is gone
+        assertArrayEquals(new int[]{0, 0, 0, 1, 0, 0}, reopen(dir));
+    }
+
+    @Test
+    void brewedThenCollected(@TempDir Path dir) throws IOException {
+        try (OrderJournal journal = OrderJournal.open(dir, ITEMS, true, 100_000)) {
+            journal.placed(0, "Bob", new int[]{2, 1});
+            journal.brewed(0, 0);
+            journal.brewed(0, 1);
+            journal.collected(0, new int[]{1, 1});
+        }
+        //one tea still brewing, the tray empty
+        assertArrayEquals(new int[]{0, 0, 1, 0, 0, 0}, reopen(dir));
+    }
+
+    private static int[] reopen(Path dir) throws IOException {
+        try (OrderJournal journal = OrderJournal.open(dir, ITEMS, true, 100_000)) {
+            assertEquals(1, journal.recovered().size());
+            return journal.recovered().get(0).getCounts();
+        }
+    }
+}
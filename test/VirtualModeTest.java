@@ -0,0 +1,77 @@
+package test;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+//runs 'Barista virtual' in its own jvm, on the same java as the tests - java 17 has to refuse to start, java 21+ has to serve
+public class VirtualModeTest {
+
+    @Test
+    void virtualModeServesOnJava21OrRefusesToStart(@TempDir Path dir) throws Exception {
+        int port;
+        try (ServerSocket free = new ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+        Path output = dir.resolve("barista.out");
+        Process barista = new ProcessBuilder(
+                ProcessHandle.current().info().command().orElse("java"),
+                "-Dcafe.port=" + port,
+                "-Dcafe.journal=false",
+                "-Dcafe.log.file=" + dir.resolve("logs.json"),
+                "-cp", System.getProperty("java.class.path"),
+                "Cafe3Test.Barista", "virtual")
+                .redirectErrorStream(true)
+                .redirectOutput(output.toFile())
+                .start();
+        try {
+            if (Runtime.version().feature() < 21) {
+                assertTrue(barista.waitFor(30, TimeUnit.SECONDS), "virtual mode kept running without virtual threads");
+                assertEquals(1, barista.exitValue());
+                assertTrue(Files.readString(output).contains("Virtual mode needs java 21+"), Files.readString(output));
+                return;
+            }
+            try (Socket client = connect(port)) {
+                client.setSoTimeout(5_000);
+                OutputStream out = client.getOutputStream();
+                BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+                out.write("CAFE/1 Bob\n".getBytes(StandardCharsets.UTF_8));
+                assertTrue(in.readLine().startsWith("CAFE/1 OK session"));
+                out.write("1 order 1 tea\n".getBytes(StandardCharsets.UTF_8));
+                assertTrue(in.readLine().startsWith("1 OK your order has been placed"));
+            }
+            assertTrue(Files.readString(output).contains("(virtual mode)"));
+        } finally {
+            barista.destroy();
+            barista.waitFor(10, TimeUnit.SECONDS);
+        }
+    }
+
+    //the barista takes a moment to start listening
+    private static Socket connect(int port) throws Exception {
+        long giveUp = System.currentTimeMillis() + 30_000;
+        while (true) {
+            try {
+                return new Socket("localhost", port);
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > giveUp) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+}